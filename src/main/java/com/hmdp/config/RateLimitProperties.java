@@ -0,0 +1,67 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 接口限流配置，按顺序匹配第一条规则
+ *
+ * @author Hikarukimi
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.rate-limit")
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * 每条规则在本地最多保留的令牌桶数量，超出后淘汰最久未使用的
+     */
+    private int localCapacity = 10000;
+
+    /**
+     * 为 true 时按 X-Forwarded-For 的第一个地址识别客户端，只应在可信的反向代理之后开启
+     */
+    private boolean trustForwardedFor = false;
+
+    private List<Rule> rules = new ArrayList<>();
+
+    @Data
+    public static class Rule {
+
+        /**
+         * Ant 风格的路径
+         */
+        private String pattern;
+
+        /**
+         * 限流维度，user 按登录校验得到的用户id，不需要登录的接口按 ip；ip 按客户端地址
+         */
+        private String key = "ip";
+
+        /**
+         * 本节点令牌桶每秒生成的令牌数，0 表示不做本地限流
+         */
+        private double localPermitsPerSecond;
+
+        /**
+         * 本节点令牌桶容量，允许的突发请求数
+         */
+        private int localBurst = 1;
+
+        /**
+         * 集群滑动窗口长度，秒
+         */
+        private long windowSeconds = 1;
+
+        /**
+         * 集群滑动窗口内允许的请求数，0 表示不做集群限流
+         */
+        private int windowLimit;
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.interceptor.ResponseCache;
+import com.hmdp.interceptor.ResponseCacheInterceptor;
+import com.hmdp.utils.ResponseBodyCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import javax.annotation.Resource;
+
+/**
+ * 在响应体写出前保存标注了 {@link ResponseCache} 的接口的成功响应，失败的响应不缓存
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@RestControllerAdvice
+public class ResponseCacheAdvice implements ResponseBodyAdvice<Object> {
+
+    @Resource
+    private ResponseBodyCache responseBodyCache;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return returnType.hasMethodAnnotation(ResponseCache.class);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (!(body instanceof Result) || !Boolean.TRUE.equals(((Result) body).getSuccess())
+                || !(request instanceof ServletServerHttpRequest)) {
+            return body;
+        }
+        Object key = ((ServletServerHttpRequest) request).getServletRequest()
+                .getAttribute(ResponseCacheInterceptor.CACHE_KEY_ATTRIBUTE);
+        if (key == null) {
+            return body;
+        }
+        ResponseCache responseCache = returnType.getMethodAnnotation(ResponseCache.class);
+        try {
+            responseBodyCache.put(responseCache.name(), key.toString(),
+                    objectMapper.writeValueAsBytes(body), responseCache.ttlSeconds());
+        } catch (Exception e) {
+            log.warn("响应缓存序列化失败,key:{}", key, e);
+        }
+        return body;
+    }
+}
@@ -1,6 +1,10 @@
 package com.hmdp.config;
 
 import com.hmdp.interceptor.IsLoginInterceptor;
+import com.hmdp.interceptor.RateLimitInterceptor;
+import com.hmdp.interceptor.ResponseCacheInterceptor;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.ResponseBodyCache;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -17,11 +21,24 @@ public class WebConfig implements WebMvcConfigurer {
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    ResponseBodyCache responseBodyCache;
+
+    @Resource
+    HotKeyDetector hotKeyDetector;
+
+    @Resource
+    RateLimitProperties rateLimitProperties;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new IsLoginInterceptor(stringRedisTemplate)).excludePathPatterns(
                 "/user/code",
                 "/user/login"
         );
+        // 在登录校验之后执行，按已登录的用户id限流
+        registry.addInterceptor(new RateLimitInterceptor(stringRedisTemplate, rateLimitProperties));
+        // 在登录校验之后执行，命中时直接写出缓存的响应体
+        registry.addInterceptor(new ResponseCacheInterceptor(responseBodyCache, hotKeyDetector));
     }
 }
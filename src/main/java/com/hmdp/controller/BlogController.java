@@ -2,18 +2,26 @@ package com.hmdp.controller;
 
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
+import com.hmdp.interceptor.ResponseCache;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.ResponseBodyCache;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -31,6 +39,10 @@ public class BlogController {
     private IBlogService blogService;
     @Resource
     private IUserService userService;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private ResponseBodyCache responseBodyCache;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -39,6 +51,8 @@ public class BlogController {
         blog.setUserId(user.getId());
         // 保存探店博文
         blogService.save(blog);
+        // 新笔记可能进入热门列表，点赞带来的排名变化则由缓存过期时间兜底
+        responseBodyCache.evict(SystemConstants.RESPONSE_CACHE_BLOG_HOT);
         // 返回id
         return Result.ok(blog.getId());
     }
@@ -55,29 +69,100 @@ public class BlogController {
     public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
         // 获取登录用户
         UserDTO user = UserHolder.getUser();
-        // 根据用户查询
+        // 根据用户查询，只返回当前页数据，不需要COUNT查询
         Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
 
+    /**
+     * 游标分页查询我的探店笔记，按id倒序
+     * @param lastId 上一页返回的lastId，查询第一页时不传
+     * @return 笔记列表及下一页游标
+     */
+    @GetMapping("/of/me/scroll")
+    public Result scrollMyBlog(@RequestParam(value = "lastId", required = false) Long lastId) {
+        UserDTO user = UserHolder.getUser();
+        List<Blog> records = blogService.query()
+                .eq("user_id", user.getId())
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        Long nextId = records.isEmpty() ? null : records.get(records.size() - 1).getId();
+        return Result.ok(CursorResult.of(records, nextId, null, SystemConstants.MAX_PAGE_SIZE));
+    }
+
+    @ResponseCache(name = SystemConstants.RESPONSE_CACHE_BLOG_HOT, ttlSeconds = 10)
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 根据用户查询
+        // 根据点赞数分页查询，不需要COUNT查询
         Page<Blog> page = blogService.query()
                 .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         // 查询用户
-        records.forEach(blog ->{
-            Long userId = blog.getUserId();
-            User user = userService.getById(userId);
-            blog.setName(user.getNickName());
-            blog.setIcon(user.getIcon());
-        });
+        fillUser(records);
         return Result.ok(records);
     }
+
+    /**
+     * 游标分页查询热门探店笔记，按(点赞数, id)倒序，不随页码加深而变慢。
+     * tb_blog.liked 为 NOT NULL，游标比较不会漏掉点赞数为空的笔记
+     * @param lastLiked 上一页返回的lastKey，即最后一条笔记的点赞数，查询第一页时不传
+     * @param lastId 上一页返回的lastId，查询第一页时不传
+     * @return 笔记列表及下一页游标
+     */
+    @GetMapping("/hot/scroll")
+    public Result scrollHotBlog(
+            @RequestParam(value = "lastKey", required = false) Long lastLiked,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        if ((lastLiked == null) != (lastId == null)) {
+            return Result.fail("lastKey和lastId必须同时传入");
+        }
+        return hotKeyDetector.execute(HotKeyDetector.BLOG_HOT_KEY_PREFIX + "scroll:" + lastLiked + ":" + lastId,
+                () -> loadHotBlogAfter(lastLiked, lastId));
+    }
+
+    private Result loadHotBlogAfter(Long lastLiked, Long lastId) {
+        boolean hasCursor = lastLiked != null;
+        List<Blog> records = blogService.query()
+                .and(hasCursor, w -> w.lt("liked", lastLiked)
+                        .or(o -> o.eq("liked", lastLiked).lt("id", lastId)))
+                .orderByDesc("liked", "id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        fillUser(records);
+        Long nextId = null;
+        Long nextLiked = null;
+        if (!records.isEmpty()) {
+            Blog last = records.get(records.size() - 1);
+            nextId = last.getId();
+            nextLiked = last.getLiked() == null ? 0L : last.getLiked().longValue();
+        }
+        return Result.ok(CursorResult.of(records, nextId, nextLiked, SystemConstants.MAX_PAGE_SIZE));
+    }
+
+    /**
+     * 批量查询笔记作者，填充昵称和头像
+     */
+    private void fillUser(List<Blog> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = records.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, User> users = userService.listByIds(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        records.forEach(blog -> {
+            User user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        });
+    }
 }
@@ -0,0 +1,42 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.ResponseBodyCache;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * @author Hikarukimi
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private ResponseBodyCache responseBodyCache;
+
+    /**
+     * 查询当前的热点key
+     * @return 热点key、估算访问次数及探测器统计
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.stats());
+    }
+
+    /**
+     * 查询响应缓存的命中率
+     * @return 各缓存名称的命中次数、命中率及直接写出的字节数
+     */
+    @GetMapping("/response/stats")
+    public Result queryResponseCacheStats() {
+        return Result.ok(responseBodyCache.stats());
+    }
+}
@@ -1,19 +1,16 @@
 package com.hmdp.controller;
 
 
-import com.alibaba.fastjson2.JSON;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.hmdp.dto.Result;
-import com.hmdp.entity.ShopType;
-import com.hmdp.service.IShopTypeService;
-import com.hmdp.utils.RedisConstants;
-import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.ShopTypeSnapshot;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -23,27 +20,27 @@ import java.util.List;
  * @author hikarukimi
  * @since 2021-12-22
  */
-@Slf4j
 @RestController
 @RequestMapping("/shop-type")
 public class ShopTypeController {
     @Resource
-    private IShopTypeService typeService;
-    @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private ShopTypeSnapshot shopTypeSnapshot;
 
+    /**
+     * 查询全部商铺类型，直接返回进程内快照中预先序列化的响应体
+     * @param ifNoneMatch 客户端缓存的ETag，与当前快照一致时返回304
+     * @return 商铺类型列表
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
-        List<ShopType> typeList;
-        List<String> range = stringRedisTemplate.opsForList().range(RedisConstants.CACHE_SHOP_TYPE_KEY, 0, -1);
-        if (range==null||range.isEmpty()){
-            typeList= typeService.query().orderByAsc("sort").list();
-            typeList.forEach(type-> stringRedisTemplate.
-                    opsForList().rightPush(RedisConstants.CACHE_SHOP_TYPE_KEY, JSON.toJSONString(type)));
-            return Result.ok(typeList);
+    public ResponseEntity<byte[]> queryTypeList(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        ShopTypeSnapshot.Snapshot snapshot = shopTypeSnapshot.get();
+        if (snapshot.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getEtag()).build();
         }
-        typeList= typeService.query().orderByAsc("sort").list();
-        log.info("查询出shop-type:{}",typeList);
-        return Result.ok(range);
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
     }
 }
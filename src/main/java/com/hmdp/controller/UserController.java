@@ -1,8 +1,6 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.hmdp.dto.LoginFormDTO;
@@ -20,7 +18,6 @@ import org.springframework.web.bind.annotation.*;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 import java.sql.Time;
-import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -83,10 +80,7 @@ public class UserController {
             return Result.fail("密码错误");
         }
         String tokenKey=RedisConstants.LOGIN_USER_KEY+one.getId();
-        stringRedisTemplate.opsForHash().
-                putAll(tokenKey, BeanUtil.beanToMap(one,new HashMap<>(),CopyOptions.create().setFieldValueEditor(
-                        (key, value) -> value.toString()
-                )));
+        stringRedisTemplate.opsForHash().putAll(tokenKey, RedisHashCodec.fromUser(one));
         stringRedisTemplate.expire(tokenKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
 
         return Result.ok(one.getId().toString());
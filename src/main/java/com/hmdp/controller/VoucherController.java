@@ -4,6 +4,9 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.interceptor.ResponseCache;
+import com.hmdp.utils.ResponseBodyCache;
+import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -19,6 +22,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private ResponseBodyCache responseBodyCache;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -27,6 +33,7 @@ public class VoucherController {
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
         voucherService.save(voucher);
+        responseBodyCache.evict(SystemConstants.RESPONSE_CACHE_VOUCHER_LIST);
         return Result.ok(voucher.getId());
     }
 
@@ -38,14 +45,26 @@ public class VoucherController {
     @PostMapping("seckill")
     public Result addSecKillVoucher(@RequestBody Voucher voucher) {
         voucherService.addSecKillVoucher(voucher);
+        responseBodyCache.evict(SystemConstants.RESPONSE_CACHE_VOUCHER_LIST);
         return Result.ok(voucher.getId());
     }
 
     /**
-     * 查询店铺的优惠券列表
+     * 对账秒杀券库存，汇总 Redis 各分段的剩余库存
+     * @param id 秒杀券id
+     * @return 各分段库存、总库存和数据库库存
+     */
+    @GetMapping("seckill/{id}/stock")
+    public Result reconcileSecKillStock(@PathVariable("id") Long id) {
+        return voucherService.reconcileSecKillStock(id);
+    }
+
+    /**
+     * 查询店铺的优惠券列表，序列化后的响应缓存在进程内，新增优惠券时清除
      * @param shopId 店铺id
      * @return 优惠券列表
      */
+    @ResponseCache(name = SystemConstants.RESPONSE_CACHE_VOUCHER_LIST, ttlSeconds = 60)
     @GetMapping("/list/{shopId}")
     public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
        return voucherService.queryVoucherOfShop(shopId);
@@ -1,17 +1,12 @@
 package com.hmdp.controller;
 
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SecKillVoucher;
-import com.hmdp.entity.VoucherOrder;
-import com.hmdp.service.ISecKillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
-import com.hmdp.utils.RedisLock;
-import com.hmdp.utils.UserHolder;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.transaction.annotation.Transactional;
+import com.hmdp.utils.SecKillSoldOutFlags;
+import com.hmdp.utils.SecKillVoucherMetadata;
+import com.hmdp.utils.VoucherOrderStreamConsumer;
+import com.hmdp.utils.VoucherOrderWriter;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -31,59 +26,64 @@ import javax.annotation.Resource;
 @RequestMapping("/voucher-order")
 public class VoucherOrderController {
 
-    private static final Logger log = LoggerFactory.getLogger(VoucherOrderController.class);
+    @Resource
+    private IVoucherOrderService voucherOrderService;
 
     @Resource
-    private ISecKillVoucherService secKillVoucherService;
+    private VoucherOrderWriter voucherOrderWriter;
 
     @Resource
-    private IVoucherOrderService voucherOrderService;
+    private VoucherOrderStreamConsumer voucherOrderStreamConsumer;
 
     @Resource
-    private RedisLock redisLock;
+    private SecKillSoldOutFlags soldOutFlags;
 
-    @Transactional
+    @Resource
+    private SecKillVoucherMetadata secKillVoucherMetadata;
+
+    /**
+     * 抢购秒杀券，默认通过 Lua 脚本在 Redis 中完成校验和扣减，订单经由 Redis 消息流异步写入数据库
+     * @param voucherId 秒杀券id
+     * @return 订单id
+     */
     @PostMapping("seckill/{id}")
     public Result secKillVoucher(@PathVariable("id") Long voucherId) {
-        SecKillVoucher byId = secKillVoucherService.getById(voucherId);
-        if (byId == null) {
-            log.error("优惠券不存在,被查询的优惠卷id为{}", voucherId);
-            return Result.fail("优惠券不存在");
-        }
-        if (byId.getStock() <= 0) {
-            return Result.fail("库存不足");
-        }
-
-        Long userId = UserHolder.getUser().getId();
-        VoucherOrder order = voucherOrderService.getOne(new LambdaQueryWrapper<VoucherOrder>()
-                .eq(VoucherOrder::getVoucherId, voucherId).eq(VoucherOrder::getUserId, userId));
-        if (order != null) {
-            return Result.fail("不能重复购买");
-        }
+        return voucherOrderService.secKillVoucher(voucherId);
+    }
 
-        String lockKey =voucherId + ":" + userId;
-        try {
-            boolean locked = redisLock.lock(lockKey, userId.toString());
-            if (!locked) {
-                return Result.fail("当前抢购人数过多，请稍后再试");
-            }
+    /**
+     * 查询秒杀订单写入器的状态
+     * @return 队列长度、写入延迟和批次大小分布
+     */
+    @GetMapping("writer/stats")
+    public Result queryWriterStats() {
+        return Result.ok(voucherOrderWriter.stats());
+    }
 
-            boolean update = secKillVoucherService.update(new LambdaUpdateWrapper<SecKillVoucher>()
-                    .eq(SecKillVoucher::getStock, byId.getStock()).set(SecKillVoucher::getStock, byId.getStock() - 1));
-            if (!update) {
-                return Result.fail("购买失败");
-            }
+    /**
+     * 查询秒杀订单消息流消费者的状态
+     * @return 确认、认领和放弃的消息数
+     */
+    @GetMapping("stream/stats")
+    public Result queryStreamStats() {
+        return Result.ok(voucherOrderStreamConsumer.stats());
+    }
 
-            VoucherOrder voucherOrder = new VoucherOrder();
-            voucherOrder.setUserId(userId);
-            voucherOrder.setVoucherId(voucherId);
-            voucherOrderService.save(voucherOrder);
+    /**
+     * 查询本节点标记为售罄的秒杀券
+     * @return 售罄的秒杀券id及被直接拦截的请求数
+     */
+    @GetMapping("sold-out/stats")
+    public Result querySoldOutStats() {
+        return Result.ok(soldOutFlags.stats());
+    }
 
-            return Result.ok(voucherOrder.getId());
-        } finally {
-            log.info("释放锁,key:{},value:{}", lockKey, userId.toString());
-            redisLock.unlock(lockKey, userId.toString());
-        }
+    /**
+     * 查询本节点缓存的秒杀券元数据
+     * @return 缓存的未结束秒杀券数量
+     */
+    @GetMapping("metadata/stats")
+    public Result queryMetadataStats() {
+        return Result.ok(secKillVoucherMetadata.stats());
     }
 }
-
@@ -0,0 +1,36 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页结果，客户端把 lastId、lastKey 原样传回即可查询下一页，不需要 COUNT 查询
+ *
+ * @author Hikarukimi
+ */
+@Data
+public class CursorResult {
+    private List<?> list;
+    /**
+     * 本页最后一条记录的id
+     */
+    private Long lastId;
+    /**
+     * 本页最后一条记录的排序键（例如点赞数），只按id排序时为空
+     */
+    private Long lastKey;
+    /**
+     * 是否可能还有下一页
+     */
+    private Boolean hasMore;
+
+    public static CursorResult of(List<?> list, Long lastId, Long lastKey, int pageSize) {
+        CursorResult result = new CursorResult();
+        result.setList(list);
+        result.setLastId(lastId);
+        result.setLastKey(lastKey);
+        result.setHasMore(list.size() >= pageSize);
+        return result;
+    }
+}
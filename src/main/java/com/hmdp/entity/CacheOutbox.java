@@ -0,0 +1,85 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 缓存失效发件箱
+ * </p>
+ *
+ * @author Hikarukimi
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_cache_outbox")
+public class CacheOutbox implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 等待首次删除
+     */
+    public static final int STAGE_DELETE = 0;
+
+    /**
+     * 等待延迟二次删除
+     */
+    public static final int STAGE_DELAYED_DELETE = 1;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 需要删除的缓存key
+     */
+    private String cacheKey;
+
+    /**
+     * 修改后的数据版本，为空时直接删除缓存
+     */
+    private Long version;
+
+    /**
+     * 处理阶段
+     */
+    private Integer stage;
+
+    /**
+     * 失败重试次数
+     */
+    private Integer attempts;
+
+    /**
+     * 下一次处理时间
+     */
+    private LocalDateTime nextTime;
+
+    /**
+     * 认领该记录的节点和批次，未被认领时为空
+     */
+    private String owner;
+
+    /**
+     * 认领的过期时间，过期后其他节点可以重新认领
+     */
+    private LocalDateTime leaseUntil;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+
+}
@@ -103,6 +103,11 @@ public class Shop implements Serializable {
      */
     private LocalDateTime updateTime;
 
+    /**
+     * 数据版本，每次修改加1，作为缓存版本
+     */
+    private Long version;
+
 
     @TableField(exist = false)
     private Double distance;
@@ -27,7 +27,7 @@ public class VoucherOrder implements Serializable {
     private static final long serialVersionUID = 1L;
 
     /**
-     * 主键
+     * 主键，ASSIGN_ID 由 {@link com.hmdp.utils.SnowflakeIdGenerator} 生成
      */
     @TableId(value = "id", type = IdType.ASSIGN_ID)
     private Long id;
@@ -1,15 +1,13 @@
 package com.hmdp.interceptor;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisHashCodec;
 import com.hmdp.utils.UserHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
-import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -56,16 +54,16 @@ public class IsLoginInterceptor implements HandlerInterceptor {
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
         String token = request.getHeader("authorization");
         // 从Redis中获取用户信息
-        User user = BeanUtil.toBean(stringRedisTemplate.opsForHash().
-                entries(RedisConstants.LOGIN_USER_KEY + token), User.class);
-        if (user.getId() == null){
+        UserDTO user = RedisHashCodec.toUserDto(stringRedisTemplate.opsForHash().
+                entries(RedisConstants.LOGIN_USER_KEY + token));
+        if (user == null){
             // 用户未登录，设置响应状态码为401
             response.setStatus(401);
             response.getWriter().write("{\"success\":false,\"msg\":\"未登录\"}");
             return false;
         }
         // 保存用户信息到ThreadLocal，以便在请求处理过程中使用
-        UserHolder.saveUser(UserDTO.entityToDto(user));
+        UserHolder.saveUser(user);
         // 刷新用户登录状态的过期时间
         stringRedisTemplate
                 .expire(RedisConstants.LOGIN_USER_KEY + token, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
@@ -73,16 +71,16 @@ public class IsLoginInterceptor implements HandlerInterceptor {
     }
 
     /**
-     * 请求处理之后进行调用，但在视图被渲染之前（Controller方法调用之后）。
+     * 请求结束后进行调用，后续拦截器直接结束请求或控制器抛出异常时同样会调用。
      * 清除ThreadLocal中的用户信息，防止内存泄漏。
      *
      * @param request  请求对象
      * @param response 响应对象
      * @param handler  处理器对象
-     * @param modelAndView 视图对象
+     * @param ex       处理过程中抛出的异常
      */
     @Override
-    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler, ModelAndView modelAndView) {
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
         UserHolder.removeUser();
     }
 }
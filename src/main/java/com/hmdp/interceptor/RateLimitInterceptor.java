@@ -0,0 +1,184 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.RateLimitProperties;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.UserHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 接口限流拦截器，在登录校验之后执行，按 {@link RateLimitProperties} 中第一条匹配的规则限流。
+ * 按用户限流时使用登录校验得到的用户id，未携带有效令牌的请求已被登录校验拒绝，
+ * 伪造的令牌不会产生限流记录；不需要登录的接口按客户端地址限流。
+ * 先经过本节点的令牌桶，被拒绝时不访问 Redis；通过后再由 Redis 滑动窗口做集群范围的限流，
+ * 限流本身最多访问一次 Redis，被拒绝的请求不会访问数据库。被拒绝时返回 429。
+ * Redis 不可用时放行，只保留本地限流。
+ *
+ * @author Hikarukimi
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitInterceptor.class);
+
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+    private static final byte[] REJECTED_BODY =
+            "{\"success\":false,\"errorMsg\":\"请求过于频繁，请稍后再试\"}".getBytes(StandardCharsets.UTF_8);
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RateLimitProperties properties;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    /**
+     * 与规则一一对应，限流维度的值 -> 令牌桶
+     */
+    private final List<LRUCache<String, TokenBucket>> buckets;
+
+    /**
+     * 滑动窗口中请求记录的唯一标识，同一毫秒内的多次请求不会互相覆盖
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public RateLimitInterceptor(StringRedisTemplate stringRedisTemplate, RateLimitProperties properties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = properties;
+        this.buckets = new ArrayList<>(properties.getRules().size());
+        for (int i = 0; i < properties.getRules().size(); i++) {
+            buckets.add(CacheUtil.newLRUCache(properties.getLocalCapacity()));
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        String path = request.getRequestURI();
+        List<RateLimitProperties.Rule> rules = properties.getRules();
+        for (int i = 0; i < rules.size(); i++) {
+            RateLimitProperties.Rule rule = rules.get(i);
+            if (pathMatcher.match(rule.getPattern(), path)) {
+                long retryAfterMillis = acquire(i, rule, keyOf(rule, request));
+                if (retryAfterMillis > 0) {
+                    reject(response, retryAfterMillis);
+                    return false;
+                }
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 0 表示放行，否则为建议的重试等待毫秒数
+     */
+    private long acquire(int index, RateLimitProperties.Rule rule, String key) {
+        if (rule.getLocalPermitsPerSecond() > 0) {
+            TokenBucket bucket = buckets.get(index)
+                    .get(key, () -> new TokenBucket(rule.getLocalPermitsPerSecond(), rule.getLocalBurst()));
+            if (!bucket.tryAcquire()) {
+                return (long) Math.ceil(1000 / rule.getLocalPermitsPerSecond());
+            }
+        }
+        if (rule.getWindowLimit() <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            Long retryAfter = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT,
+                    Collections.singletonList(RedisConstants.RATE_LIMIT_KEY + index + ":" + key),
+                    String.valueOf(now), String.valueOf(TimeUnit.SECONDS.toMillis(rule.getWindowSeconds())),
+                    String.valueOf(rule.getWindowLimit()), nodeId + ":" + sequence.incrementAndGet());
+            return retryAfter == null ? 0 : retryAfter;
+        } catch (Exception e) {
+            log.warn("集群限流失败,本次请求放行:{}", key, e);
+            return 0;
+        }
+    }
+
+    private String keyOf(RateLimitProperties.Rule rule, HttpServletRequest request) {
+        if ("user".equals(rule.getKey())) {
+            // 只信任登录校验通过的用户，客户端随意携带的令牌不作为限流维度
+            UserDTO user = UserHolder.getUser();
+            if (user != null) {
+                return "user:" + user.getId();
+            }
+        }
+        return "ip:" + clientIp(request);
+    }
+
+    private String clientIp(HttpServletRequest request) {
+        if (properties.isTrustForwardedFor()) {
+            String forwarded = request.getHeader("X-Forwarded-For");
+            if (StrUtil.isNotBlank(forwarded)) {
+                return StrUtil.subBefore(forwarded, ",", false).trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private static void reject(HttpServletResponse response, long retryAfterMillis) throws Exception {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", String.valueOf(Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(retryAfterMillis + 999))));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(REJECTED_BODY.length);
+        response.getOutputStream().write(REJECTED_BODY);
+    }
+
+    /**
+     * 令牌桶，按时间差补充令牌
+     */
+    private static final class TokenBucket {
+        private final double permitsPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        private TokenBucket(double permitsPerSecond, int burst) {
+            this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, burst);
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        private synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerNano);
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.hmdp.interceptor;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记只读的GET接口，成功的响应体按 (接口, 请求路径和参数) 序列化后缓存，
+ * 命中时由 {@link ResponseCacheInterceptor} 直接把字节写入响应，不再调用控制器和序列化。
+ * 只能用于与登录用户无关的接口。
+ *
+ * @author Hikarukimi
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ResponseCache {
+
+    /**
+     * 缓存名称，清除缓存时按名称整体清除
+     */
+    String name();
+
+    /**
+     * 缓存的存活时间，单位秒
+     */
+    long ttlSeconds() default 30;
+}
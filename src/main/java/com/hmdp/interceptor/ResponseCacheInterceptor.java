@@ -0,0 +1,58 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.ResponseBodyCache;
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 响应缓存拦截器，处理标注了 {@link ResponseCache} 的GET请求。
+ * 命中时直接把缓存的字节写入输出流并结束请求；
+ * 未命中时把缓存key放入请求属性，由 {@link com.hmdp.config.ResponseCacheAdvice} 在序列化时保存响应体。
+ *
+ * @author Hikarukimi
+ */
+public class ResponseCacheInterceptor implements HandlerInterceptor {
+
+    /**
+     * 未命中时保存缓存key的请求属性
+     */
+    public static final String CACHE_KEY_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".key";
+
+    private final ResponseBodyCache responseBodyCache;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    public ResponseCacheInterceptor(ResponseBodyCache responseBodyCache, HotKeyDetector hotKeyDetector) {
+        this.responseBodyCache = responseBodyCache;
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod) || !"GET".equals(request.getMethod())) {
+            return true;
+        }
+        ResponseCache responseCache = ((HandlerMethod) handler).getMethodAnnotation(ResponseCache.class);
+        if (responseCache == null) {
+            return true;
+        }
+        String query = request.getQueryString();
+        String key = query == null ? request.getRequestURI() : request.getRequestURI() + "?" + query;
+        // 命中时不会再进入控制器，在这里计入热点探测
+        hotKeyDetector.record(responseCache.name() + ":" + key);
+        byte[] body = responseBodyCache.get(responseCache.name(), key);
+        if (body == null) {
+            request.setAttribute(CACHE_KEY_ATTRIBUTE, key);
+            return true;
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return false;
+    }
+}
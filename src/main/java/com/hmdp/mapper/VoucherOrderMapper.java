@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,12 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 一条多行 INSERT 写入一批订单，同一用户对同一秒杀券已有订单时违反唯一索引 uk_voucher_user，
+     * 抛出 {@link org.springframework.dao.DuplicateKeyException}，调用方需先过滤已有的订单
+     *
+     * @param orders 订单，需已设置id、用户id、秒杀券id和下单时间
+     * @return 写入的行数
+     */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
 }
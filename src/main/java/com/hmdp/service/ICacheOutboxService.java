@@ -0,0 +1,29 @@
+package com.hmdp.service;
+
+import com.hmdp.entity.CacheOutbox;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  缓存失效发件箱
+ * </p>
+ *
+ * @author Hikarukimi
+ */
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 在当前事务中记录一条缓存失效，事务提交后由后台线程删除缓存
+     *
+     * @param cacheKey 需要删除的缓存key
+     * @param version  修改后的数据版本，不为null时缓存被替换为该版本的墓碑而不是直接删除
+     */
+    void enqueue(String cacheKey, Long version);
+
+    /**
+     * 处理到期的发件箱记录
+     *
+     * @return 本次处理的记录数
+     */
+    int drain();
+}
@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +16,27 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopService extends IService<Shop> {
 
+    Result queryById(Long id);
+
+    Result queryByIds(List<Long> ids);
+
+    Result queryByType(Integer typeId, Integer current, Double x, Double y, Double radius);
+
+    Result queryByName(String name, Integer current);
+
+    Result scrollByType(Integer typeId, Long lastId);
+
+    Result scrollByName(String name, Long lastId);
+
+    Result saveShop(Shop shop);
+
+    /**
+     * 批量写入商铺缓存
+     *
+     * @param shops      商铺
+     * @param loadMillis 从数据库加载这些商铺的耗时，供 XFetch 估算重建代价
+     */
+    void cacheShops(List<Shop> shops, long loadMillis);
+
+    Result update(Shop shop);
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,11 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
+    /**
+     * 当前登录用户抢购秒杀券
+     *
+     * @param voucherId 秒杀券id
+     * @return 成功时返回订单id
+     */
+    Result secKillVoucher(Long voucherId);
 }
@@ -17,4 +17,9 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSecKillVoucher(Voucher voucher);
+
+    /**
+     * 汇总秒杀券在 Redis 各分段中的剩余库存，并与数据库库存对比
+     */
+    Result reconcileSecKillStock(Long voucherId);
 }
@@ -0,0 +1,265 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.NumberUtil;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ShopLocalCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * 缓存失效发件箱：业务修改与失效记录在同一事务中写入，事务提交后由后台线程批量删除缓存。
+ * 首次删除后记录进入延迟二次删除阶段，用于清除提交前被并发读请求回填的旧值；
+ * 带版本的记录不直接删除缓存，而是写入该版本的墓碑，拒绝版本更旧的回填；
+ * 删除失败时按指数退避重试。所有处理都在单独的线程上进行，写请求不再同步访问 Redis。
+ * 多个节点共用同一张表，处理前先用一条 UPDATE 认领到期且未被认领（或认领已过期）的记录，
+ * 再只处理本次认领的记录，每条记录同一时间只由一个节点处理。处理完成后释放认领；
+ * 节点在处理中途退出时，认领在 lease-millis 后过期，由其他节点重新认领。
+ * </p>
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    private static final long MAX_BACKOFF_SECONDS = 60L;
+
+    private static final DefaultRedisScript<Long> TOMBSTONE_SCRIPT;
+
+    static {
+        TOMBSTONE_SCRIPT = new DefaultRedisScript<>();
+        TOMBSTONE_SCRIPT.setLocation(new ClassPathResource("cache_tombstone.lua"));
+        TOMBSTONE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopLocalCache shopLocalCache;
+
+    @Value("${hmdp.cache.outbox.batch-size:100}")
+    private int batchSize;
+
+    @Value("${hmdp.cache.outbox.double-delete-delay-millis:500}")
+    private long doubleDeleteDelayMillis;
+
+    @Value("${hmdp.cache.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${hmdp.cache.outbox.lease-millis:30000}")
+    private long leaseMillis;
+
+    /**
+     * 本节点的标识，与递增序号组成每次认领的标识
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    private final AtomicLong claimSequence = new AtomicLong();
+
+    /**
+     * 所有处理都提交到同一个线程，提交后唤醒与定时轮询不会并发执行
+     */
+    private final ExecutorService drainExecutor = Executors.newSingleThreadExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("cache-outbox-").setDaemon(true).build());
+
+    /**
+     * 已有未执行的唤醒任务时不再重复提交
+     */
+    private final AtomicBoolean wakeRequested = new AtomicBoolean();
+
+    @PreDestroy
+    public void destroy() {
+        drainExecutor.shutdown();
+    }
+
+    @Override
+    public void enqueue(String cacheKey, Long version) {
+        save(new CacheOutbox()
+                .setCacheKey(cacheKey)
+                .setVersion(version)
+                .setStage(CacheOutbox.STAGE_DELETE)
+                .setAttempts(0)
+                .setNextTime(LocalDateTime.now()));
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            wake();
+            return;
+        }
+        // 提交后立即唤醒处理线程，不必等待下一次轮询
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                wake();
+            }
+        });
+    }
+
+    /**
+     * 定时轮询，兜底处理唤醒丢失、重试和延迟二次删除
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.outbox.poll-interval-millis:1000}")
+    public void poll() {
+        wake();
+    }
+
+    private void wake() {
+        if (!wakeRequested.compareAndSet(false, true)) {
+            return;
+        }
+        drainExecutor.execute(() -> {
+            wakeRequested.set(false);
+            try {
+                // 一批处理满时继续处理下一批
+                while (drain() >= batchSize) {
+                    log.debug("缓存失效发件箱积压,继续处理下一批");
+                }
+            } catch (Exception e) {
+                log.error("处理缓存失效发件箱失败", e);
+            }
+        });
+    }
+
+    @Override
+    public int drain() {
+        LocalDateTime now = LocalDateTime.now();
+        List<CacheOutbox> due = claim(now);
+        if (due.isEmpty()) {
+            return 0;
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        Set<String> deleteKeys = new LinkedHashSet<>();
+        Map<String, Long> tombstones = new HashMap<>(due.size() * 2);
+        for (CacheOutbox outbox : due) {
+            keys.add(outbox.getCacheKey());
+            if (outbox.getVersion() == null) {
+                deleteKeys.add(outbox.getCacheKey());
+            } else {
+                // 同一个key有多条记录时只写最新的版本
+                tombstones.merge(outbox.getCacheKey(), outbox.getVersion(), Math::max);
+            }
+        }
+        try {
+            if (!deleteKeys.isEmpty()) {
+                stringRedisTemplate.delete(deleteKeys);
+            }
+            String tombstoneTtl = String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_NULL_TTL));
+            tombstones.forEach((key, version) -> stringRedisTemplate.execute(TOMBSTONE_SCRIPT,
+                    Collections.singletonList(key), version.toString(), tombstoneTtl));
+        } catch (Exception e) {
+            log.warn("删除缓存失败,{}个key稍后重试", keys.size(), e);
+            retryLater(due, now);
+            return due.size();
+        }
+        invalidateLocal(keys);
+        List<Long> firstDeleted = new ArrayList<>();
+        List<Long> finished = new ArrayList<>();
+        for (CacheOutbox outbox : due) {
+            if (outbox.getStage() == CacheOutbox.STAGE_DELETE) {
+                firstDeleted.add(outbox.getId());
+            } else {
+                finished.add(outbox.getId());
+            }
+        }
+        if (!firstDeleted.isEmpty()) {
+            update()
+                    .set("stage", CacheOutbox.STAGE_DELAYED_DELETE)
+                    .set("attempts", 0)
+                    .set("next_time", now.plusNanos(doubleDeleteDelayMillis * 1_000_000L))
+                    .set("owner", null)
+                    .set("lease_until", null)
+                    .in("id", firstDeleted)
+                    .update();
+        }
+        if (!finished.isEmpty()) {
+            removeByIds(finished);
+        }
+        return due.size();
+    }
+
+    /**
+     * 认领一批到期的记录，再查出本次认领的记录。
+     * 认领通过单条 UPDATE 完成，多个节点并发认领时每条记录只会被其中一个节点认领
+     */
+    private List<CacheOutbox> claim(LocalDateTime now) {
+        String owner = nodeId + ":" + claimSequence.incrementAndGet();
+        boolean claimed = update()
+                .set("owner", owner)
+                .set("lease_until", now.plusNanos(leaseMillis * 1_000_000L))
+                .le("next_time", now)
+                .and(w -> w.isNull("lease_until").or().lt("lease_until", now))
+                .last("order by id limit " + batchSize)
+                .update();
+        if (!claimed) {
+            return Collections.emptyList();
+        }
+        return query().eq("owner", owner).orderByAsc("id").list();
+    }
+
+    /**
+     * 商铺还有进程内一级缓存，删除 Redis 后通知所有节点删除本地条目
+     */
+    private void invalidateLocal(Set<String> keys) {
+        for (String key : keys) {
+            if (!key.startsWith(RedisConstants.CACHE_SHOP_KEY)) {
+                continue;
+            }
+            // 前缀相同但后缀不是id的key不是单个商铺
+            String id = key.substring(RedisConstants.CACHE_SHOP_KEY.length());
+            if (NumberUtil.isLong(id)) {
+                shopLocalCache.broadcastInvalidate(Long.valueOf(id));
+            }
+        }
+    }
+
+    /**
+     * 按 2^attempts 秒退避，最多60秒，超过最大重试次数后放弃并记录日志
+     */
+    private void retryLater(List<CacheOutbox> due, LocalDateTime now) {
+        for (CacheOutbox outbox : due) {
+            int attempts = outbox.getAttempts() + 1;
+            if (attempts >= maxAttempts) {
+                log.error("缓存删除重试{}次仍失败,放弃:{}", attempts, outbox.getCacheKey());
+                removeById(outbox.getId());
+                continue;
+            }
+            long backoff = Math.min(1L << Math.min(attempts, 30), MAX_BACKOFF_SECONDS);
+            update()
+                    .set("attempts", attempts)
+                    .set("next_time", now.plusSeconds(backoff))
+                    .set("owner", null)
+                    .set("lease_until", null)
+                    .eq("id", outbox.getId())
+                    .update();
+        }
+    }
+}
@@ -1,10 +1,48 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopBloomFilter;
+import com.hmdp.utils.ShopCacheClient;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopLocalCache;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.SingleFlight;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -14,7 +52,401 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopCacheClient shopCacheClient;
+
+    @Resource
+    private ShopLocalCache shopLocalCache;
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    @Resource
+    private ShopBloomFilter shopBloomFilter;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    /**
+     * 同一商铺的并发未命中在本节点合并为一次Redis/数据库访问
+     */
+    private final SingleFlight<Long, Result> shopLoader = new SingleFlight<>();
+
+    /**
+     * 缓存重建专用线程池，队列有界，队列满时放弃本次重建，由下一次请求重新触发
+     */
+    private final ThreadPoolExecutor cacheRebuildExecutor = new ThreadPoolExecutor(
+            2, 4, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(256),
+            ThreadFactoryBuilder.create().setNamePrefix("shop-cache-rebuild-").setDaemon(true).build(),
+            new ThreadPoolExecutor.AbortPolicy());
+
+    @PreDestroy
+    public void destroy() {
+        cacheRebuildExecutor.shutdown();
+    }
+
+    @Override
+    public Result queryById(Long id) {
+        // 布隆过滤器判定不存在的id直接拒绝，不访问Redis和数据库
+        if (!shopBloomFilter.mightContain(id)) {
+            return Result.fail("店铺不存在");
+        }
+        // 优先查询本地缓存
+        Shop localShop = shopLocalCache.get(id);
+        if (localShop != null) {
+            return Result.ok(localShop);
+        }
+        Result result = shopLoader.execute(id,
+                () -> shopCacheClient.isLogicalExpire() ? queryWithLogicalExpire(id) : queryCacheAside(id));
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            // 回填本地缓存
+            shopLocalCache.put((Shop) result.getData());
+        }
+        return result;
+    }
+
+    /**
+     * 旁路缓存方式查询：未命中时直接查询数据库并按版本回填，不加锁等待。
+     * 本节点的并发未命中已由 {@link SingleFlight} 合并，回填由版本比较保证不会覆盖更新的数据；
+     * 命中但临近过期时按概率提前异步刷新，避免热点缓存过期瞬间集中访问数据库
+     */
+    private Result queryCacheAside(Long id) {
+        RedisData redisData = shopCacheClient.get(id);
+        Shop shop = (Shop) redisData.getData();
+        if (shop != null) {
+            if (shopCacheClient.needsRefresh(redisData)) {
+                triggerRebuild(id, redisData.getExpireTime());
+            }
+            return Result.ok(shop);
+        }
+        // 未命中或命中修改后留下的墓碑
+        shop = loadAndCache(id);
+        return shop == null ? Result.fail("店铺不存在") : Result.ok(shop);
+    }
+
+    /**
+     * 逻辑过期方式查询：缓存中的数据不会被Redis淘汰，过期后直接返回旧值，
+     * 由抢到互斥锁的请求把重建任务提交到独立线程池，请求线程从不等待重建
+     */
+    private Result queryWithLogicalExpire(Long id) {
+        RedisData redisData = shopCacheClient.get(id);
+        Shop shop = (Shop) redisData.getData();
+        if (shop == null) {
+            // 缓存尚未预热，直接同步加载一次
+            shop = loadAndCache(id);
+            return shop == null ? Result.fail("店铺不存在") : Result.ok(shop);
+        }
+        // 已过期或命中提前刷新时，所有请求都直接返回旧值
+        if (shopCacheClient.needsRefresh(redisData)) {
+            triggerRebuild(id, redisData.getExpireTime());
+        }
+        return Result.ok(shop);
+    }
+
+    /**
+     * 抢到互斥锁的请求把重建任务提交到独立线程池，未抢到锁或队列已满时直接返回
+     *
+     * @param observedExpireTime 触发重建时读到的过期时间
+     */
+    private void triggerRebuild(Long id, LocalDateTime observedExpireTime) {
+        String mutexKey = RedisConstants.LOCK_SHOP_KEY + id;
+        if (tryLock(mutexKey)) {
+            try {
+                cacheRebuildExecutor.execute(() -> {
+                    try {
+                        rebuildIfUnchanged(id, observedExpireTime);
+                    } catch (Exception e) {
+                        log.error("商铺缓存重建失败,id:{}", id, e);
+                    } finally {
+                        unlock(mutexKey);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("商铺缓存重建队列已满,放弃本次重建,id:{}", id);
+                unlock(mutexKey);
+            }
+        }
+    }
+
+    /**
+     * 过期时间与触发时读到的不一致说明已被其他请求或节点刷新过，不再重复加载
+     */
+    private void rebuildIfUnchanged(Long id, LocalDateTime observedExpireTime) {
+        LocalDateTime expireTime = shopCacheClient.getExpireTime(id);
+        if (expireTime != null && !expireTime.equals(observedExpireTime)) {
+            return;
+        }
+        if (loadAndCache(id) == null) {
+            shopCacheClient.delete(id);
+        }
+    }
+
+    /**
+     * 从数据库加载商铺并写入缓存，同时记录加载耗时供提前刷新使用
+     *
+     * @return 商铺，不存在时返回null
+     */
+    private Shop loadAndCache(Long id) {
+        long start = System.currentTimeMillis();
+        Shop shop = getById(id);
+        if (shop != null) {
+            shopCacheClient.set(shop, System.currentTimeMillis() - start);
+        }
+        return shop;
+    }
+
+    private boolean tryLock(String mutexKey) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                .setIfAbsent(mutexKey, "", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS));
+    }
+
+    private void unlock(String mutexKey) {
+        stringRedisTemplate.delete(mutexKey);
+    }
+
+    @Override
+    public Result queryByIds(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        if (ids.size() > SystemConstants.MAX_BATCH_SIZE) {
+            return Result.fail("单次最多查询" + SystemConstants.MAX_BATCH_SIZE + "个商铺");
+        }
+        return Result.ok(loadByIds(ids));
+    }
+
+    /**
+     * 按id批量读取商铺，依次经过布隆过滤器、本地缓存、Redis和数据库
+     *
+     * @return 与ids顺序一致的商铺列表，不存在的商铺对应位置为null
+     */
+    private List<Shop> loadByIds(List<Long> ids) {
+        Map<Long, Shop> found = new HashMap<>(ids.size() * 2);
+        // 过滤不存在的id，并优先查询本地缓存
+        Set<Long> redisIds = new LinkedHashSet<>();
+        for (Long id : ids) {
+            if (id == null || found.containsKey(id) || !shopBloomFilter.mightContain(id)) {
+                continue;
+            }
+            Shop localShop = shopLocalCache.get(id);
+            if (localShop != null) {
+                found.put(id, localShop);
+            } else {
+                redisIds.add(id);
+            }
+        }
+        if (!redisIds.isEmpty()) {
+            loadThroughRedis(new ArrayList<>(redisIds), found);
+        }
+        // 按请求顺序返回，不存在的商铺对应位置为null
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            shops.add(id == null ? null : found.get(id));
+        }
+        return shops;
+    }
+
+    /**
+     * 一次管道读取全部商铺缓存，未命中的商铺通过一条 IN 查询加载，再一次管道回填
+     */
+    private void loadThroughRedis(List<Long> ids, Map<Long, Shop> found) {
+        List<RedisData> cached = shopCacheClient.multiGet(ids);
+        List<Long> missIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Long id = ids.get(i);
+            RedisData redisData = cached.get(i);
+            Shop shop = (Shop) redisData.getData();
+            if (shop == null) {
+                missIds.add(id);
+                continue;
+            }
+            if (shopCacheClient.needsRefresh(redisData)) {
+                triggerRebuild(id, redisData.getExpireTime());
+            }
+            found.put(id, shop);
+            shopLocalCache.put(shop);
+        }
+        if (missIds.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<Shop> loaded = listByIds(missIds);
+        shopCacheClient.multiSet(loaded, System.currentTimeMillis() - start);
+        for (Shop shop : loaded) {
+            found.put(shop.getId(), shop);
+            shopLocalCache.put(shop);
+        }
+    }
+
+    @Override
+    public Result queryByType(Integer typeId, Integer current, Double x, Double y, Double radius) {
+        if (x == null || y == null) {
+            // 不需要按距离排序，根据类型分页查询
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 数据库分页会把非法页码修正为第一页，GEO集合按偏移量读取，需要先校验
+        if (current == null || current < 1) {
+            return Result.fail("页码必须大于0");
+        }
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        double searchRadius = radius == null ? SystemConstants.DEFAULT_GEO_RADIUS : radius;
+        Map<Long, Double> distances = shopGeoIndex.search(typeId.longValue(), x, y, searchRadius,
+                from, SystemConstants.DEFAULT_PAGE_SIZE);
+        if (distances.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 按id批量查询后恢复距离顺序
+        Map<Long, Shop> shopMap = new HashMap<>(distances.size() * 2);
+        for (Shop shop : listByIds(distances.keySet())) {
+            shopMap.put(shop.getId(), shop);
+        }
+        List<Shop> shops = new ArrayList<>(distances.size());
+        distances.forEach((id, distance) -> {
+            Shop shop = shopMap.get(id);
+            if (shop != null) {
+                shop.setDistance(distance);
+                shops.add(shop);
+            }
+        });
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result queryByName(String name, Integer current) {
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            // 没有关键字或索引尚未构建完成时查询数据库
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        if (current == null || current < 1) {
+            return Result.fail("页码必须大于0");
+        }
+        List<Long> ids = shopNameIndex.search(name, (current - 1) * SystemConstants.MAX_PAGE_SIZE,
+                SystemConstants.MAX_PAGE_SIZE);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Shop> shops = loadByIds(ids);
+        shops.removeIf(Objects::isNull);
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result scrollByType(Integer typeId, Long lastId) {
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("limit " + SystemConstants.DEFAULT_PAGE_SIZE)
+                .list();
+        return Result.ok(toCursorResult(shops, SystemConstants.DEFAULT_PAGE_SIZE));
+    }
+
+    @Override
+    public Result scrollByName(String name, Long lastId) {
+        List<Shop> shops;
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            shops = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .gt(lastId != null, "id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                    .list();
+        } else {
+            shops = loadByIds(shopNameIndex.searchAfter(name, lastId, SystemConstants.MAX_PAGE_SIZE));
+            shops.removeIf(Objects::isNull);
+        }
+        return Result.ok(toCursorResult(shops, SystemConstants.MAX_PAGE_SIZE));
+    }
+
+    private static CursorResult toCursorResult(List<Shop> shops, int pageSize) {
+        Long lastId = shops.isEmpty() ? null : shops.get(shops.size() - 1).getId();
+        return CursorResult.of(shops, lastId, null, pageSize);
+    }
+
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    @Override
+    public void cacheShops(List<Shop> shops, long loadMillis) {
+        shopCacheClient.multiSet(shops, loadMillis);
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 写入布隆过滤器并通知其他节点
+        shopBloomFilter.add(shop.getId());
+        // 写入所属类型的GEO集合
+        shopGeoIndex.add(shop.getTypeId(), shop.getId(), shop.getX(), shop.getY());
+        // 写入名称索引
+        shopNameIndex.update(shop.getId(), shop.getName());
+        return Result.ok(shop.getId());
+    }
+
+    @Override
+    @Transactional
+    public Result update(Shop shop) {
+        if (shop.getId() == null) {
+            return Result.fail("店铺id不能为空");
+        }
+        // 修改了类型或坐标时需要同步GEO集合，先查出旧的类型
+        boolean geoChanged = shop.getTypeId() != null || shop.getX() != null || shop.getY() != null;
+        Shop old = geoChanged ? getById(shop.getId()) : null;
+        // 版本只能由数据库递增，忽略请求中的版本
+        shop.setVersion(null);
+        // 写入数据库并递增版本，店铺不存在时不同步任何索引
+        if (!update(shop, new UpdateWrapper<Shop>().setSql("version = version + 1").eq("id", shop.getId()))) {
+            return Result.fail("店铺不存在");
+        }
+        // 本事务持有行锁，读到的就是本次修改后的版本
+        Long version = getObj(new QueryWrapper<Shop>().select("version").eq("id", shop.getId()),
+                obj -> ((Number) obj).longValue());
+        if (old != null) {
+            Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+            Double x = shop.getX() != null ? shop.getX() : old.getX();
+            Double y = shop.getY() != null ? shop.getY() : old.getY();
+            // GEO集合的修改会广播到其他节点，提交后再执行，事务回滚时保持不变
+            afterCommit(() -> {
+                if (!typeId.equals(old.getTypeId())) {
+                    shopGeoIndex.remove(old.getTypeId(), shop.getId());
+                }
+                shopGeoIndex.add(typeId, shop.getId(), x, y);
+            });
+        }
+        // 修改了名称时在提交后同步名称索引
+        afterCommit(() -> shopNameIndex.update(shop.getId(), shop.getName()));
+        // 在同一事务中记录缓存失效，提交后再删除缓存，避免并发读请求在提交前回填旧值
+        cacheOutboxService.enqueue(RedisConstants.CACHE_SHOP_KEY + shop.getId(), version);
+        return Result.ok();
+    }
 }
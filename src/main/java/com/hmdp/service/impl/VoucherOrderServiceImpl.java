@@ -1,20 +1,333 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISecKillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.SecKillKeys;
+import com.hmdp.utils.SecKillSoldOutFlags;
+import com.hmdp.utils.SecKillVoucherMetadata;
+import com.hmdp.utils.SnowflakeIdGenerator;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.VoucherOrderWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 所有模式都先用进程内的 {@link SecKillVoucherMetadata} 校验秒杀券是否存在及时间窗口。
+ * 秒杀支持三种模式，由 hmdp.seckill.mode 指定，默认为 db：
+ * <ul>
+ *     <li>db：每次请求查询订单，加锁后在事务中扣减数据库库存并创建订单，订单表的唯一索引兜底一人一单</li>
+ *     <li>lua：一次 Lua 脚本调用在 Redis 中原子完成时间窗口、一人一单和库存校验并扣减，
+ *     订单交给 {@link VoucherOrderWriter} 批量写入数据库，请求线程不访问数据库</li>
+ *     <li>stream：与lua相同，但订单在同一脚本中写入 Redis 消息流，
+ *     由 {@link com.hmdp.utils.VoucherOrderStreamConsumer} 消费后写入数据库，JVM 退出也不会丢单</li>
+ * </ul>
+ * lua 和 stream 模式下按用户路由到所在分段扣减，未拆分库存的秒杀券只有一个分段，key 见 {@link SecKillKeys}。
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
+    private static final String MODE_DB = "db";
+    private static final String MODE_STREAM = "stream";
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> ROLLBACK_SCRIPT;
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+
+    /**
+     * 分段库存下用户所在分段库存不足、已记录下单用户
+     */
+    private static final long SEGMENT_DRY = 6L;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        ROLLBACK_SCRIPT.setLocation(new ClassPathResource("seckill_rollback.lua"));
+        ROLLBACK_SCRIPT.setResultType(Long.class);
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private ISecKillVoucherService secKillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisLock redisLock;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private VoucherOrderWriter voucherOrderWriter;
+
+    @Resource
+    private SecKillSoldOutFlags soldOutFlags;
+
+    @Resource
+    private SecKillVoucherMetadata voucherMetadata;
+
+    @Resource
+    private SnowflakeIdGenerator idGenerator;
+
+    @Value("${hmdp.seckill.mode:db}")
+    private String mode;
+
+    @Value("${hmdp.seckill.stream.max-length:1000000}")
+    private long streamMaxLength;
+
+    /**
+     * 秒杀券id -> 库存分段数，过期后重新读取，Redis 数据丢失后重新预热的秒杀券会退回一个分段
+     */
+    private final TimedCache<Long, Integer> segmentsCache = CacheUtil.newTimedCache(TimeUnit.MINUTES.toMillis(1));
+
+    @Override
+    public Result secKillVoucher(Long voucherId) {
+        // 秒杀券不存在、未开始或已结束时直接拒绝，不访问 Redis 和数据库
+        SecKillVoucherMetadata.Metadata metadata = voucherMetadata.get(voucherId);
+        if (metadata == null) {
+            return Result.fail("优惠券不存在");
+        }
+        long now = System.currentTimeMillis();
+        if (now < metadata.getBeginTime()) {
+            return Result.fail("秒杀尚未开始");
+        }
+        if (now > metadata.getEndTime()) {
+            return Result.fail("秒杀已经结束");
+        }
+        // 已售罄的秒杀券不再访问 Redis 和数据库
+        if (soldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        Long userId = UserHolder.getUser().getId();
+        if (MODE_DB.equals(mode)) {
+            return secKillWithDb(voucherId, userId);
+        }
+        return MODE_STREAM.equals(mode) ? secKillWithStream(voucherId, userId) : secKillWithLua(voucherId, userId);
+    }
+
+    /**
+     * 扣减与写入消息流在同一脚本中完成，成功即代表订单已持久化到 Redis
+     */
+    private Result secKillWithStream(Long voucherId, Long userId) {
+        long orderId = idGenerator.nextId();
+        int segments = segmentsOf(voucherId);
+        if (segments == 0) {
+            return Result.fail("优惠券不存在");
+        }
+        int taken = secKillInSegments(voucherId, userId, orderId, segments, true);
+        return taken < 0 ? toFailure(voucherId, (long) -taken) : Result.ok(orderId);
+    }
+
+    private Result secKillWithLua(Long voucherId, Long userId) {
+        long orderId = idGenerator.nextId();
+        int segments = segmentsOf(voucherId);
+        if (segments == 0) {
+            return Result.fail("优惠券不存在");
+        }
+        int taken = secKillInSegments(voucherId, userId, orderId, segments, false);
+        if (taken < 0) {
+            return toFailure(voucherId, (long) -taken);
+        }
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        voucherOrder.setCreateTime(LocalDateTime.now());
+        if (!voucherOrderWriter.submit(voucherOrder)) {
+            // 写入队列已满，归还库存和下单资格，保证 Redis 与数据库一致
+            int home = SecKillKeys.homeSegment(userId, segments);
+            List<String> rollbackKeys = Arrays.asList(
+                    SecKillKeys.stockKey(voucherId, taken), SecKillKeys.orderKey(voucherId, home));
+            Long restocked = rollback(rollbackKeys, userId, taken == home);
+            if (restocked != null && restocked == 1L) {
+                // 并发请求可能已经因为这一份库存被标记售罄
+                soldOutFlags.markRestocked(voucherId);
+            }
+            return Result.fail("当前抢购人数过多，请稍后再试");
+        }
+        return Result.ok(orderId);
+    }
+
+    /**
+     * 按分段秒杀：先在用户所在分段校验并扣减，有多个分段时该分段库存不足脚本仍记录下单用户，
+     * 再依次尝试其他分段，全部不足时撤销下单资格并标记售罄。
+     * 每次脚本调用只访问同一分段的 key，在集群中不会跨槽位
+     *
+     * @return 扣减成功时返回实际扣减的分段，失败时返回秒杀脚本返回值的相反数
+     */
+    private int secKillInSegments(Long voucherId, Long userId, long orderId, int segments, boolean stream) {
+        int home = SecKillKeys.homeSegment(userId, segments);
+        List<String> keys = new ArrayList<>(4);
+        keys.add(SecKillKeys.stockKey(voucherId, home));
+        keys.add(SecKillKeys.orderKey(voucherId, home));
+        keys.add(SecKillKeys.windowKey(voucherId, home));
+        if (stream) {
+            keys.add(SecKillKeys.streamKey(voucherId, home));
+        }
+        Object[] args = scriptArgs(voucherId, userId, orderId, segments > 1);
+        Long code = stringRedisTemplate.execute(SECKILL_SCRIPT, keys, args);
+        if (code == null) {
+            return -Integer.MAX_VALUE;
+        }
+        if (code == 0L) {
+            return home;
+        }
+        if (code != SEGMENT_DRY) {
+            return (int) -code;
+        }
+        for (int i = 1; i < segments; i++) {
+            int segment = (home + i) % segments;
+            List<String> takeKeys = stream
+                    ? Arrays.asList(SecKillKeys.stockKey(voucherId, segment), SecKillKeys.streamKey(voucherId, segment))
+                    : Collections.singletonList(SecKillKeys.stockKey(voucherId, segment));
+            Long taken = stringRedisTemplate.execute(TAKE_SCRIPT, takeKeys, args);
+            if (taken != null && taken == 1L) {
+                return segment;
+            }
+        }
+        // 所有分段都已售罄，归还占住的下单资格
+        stringRedisTemplate.opsForSet().remove(keys.get(1), userId.toString());
+        return -1;
+    }
+
+    /**
+     * 归还库存和下单资格。分段库存从其他分段扣减时两个 key 不在同一槽位，
+     * 先撤销下单资格再归还库存，撤销失败说明已经归还过
+     *
+     * @param keys 扣减的库存key和记录下单用户的集合key
+     * @param sameSlot 两个key是否在同一槽位
+     */
+    private Long rollback(List<String> keys, Long userId, boolean sameSlot) {
+        if (sameSlot) {
+            return stringRedisTemplate.execute(ROLLBACK_SCRIPT, keys, userId.toString());
+        }
+        Long removed = stringRedisTemplate.opsForSet().remove(keys.get(1), userId.toString());
+        if (removed == null || removed == 0L) {
+            return 0L;
+        }
+        stringRedisTemplate.opsForValue().increment(keys.get(0));
+        return 1L;
+    }
+
+    private Object[] scriptArgs(Long voucherId, Long userId, long orderId, boolean reserveOnDry) {
+        return new Object[]{userId.toString(), String.valueOf(System.currentTimeMillis()), String.valueOf(orderId),
+                voucherId.toString(), String.valueOf(streamMaxLength), reserveOnDry ? "1" : "0"};
+    }
+
+    /**
+     * 秒杀券的库存分段数，新增秒杀券时写入主时间窗口哈希，之后不再变化，在进程内缓存
+     *
+     * @return 主时间窗口哈希不存在时返回0
+     */
+    private int segmentsOf(Long voucherId) {
+        Integer cached = segmentsCache.get(voucherId, false);
+        if (cached != null) {
+            return cached;
+        }
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(SecKillKeys.mainWindowKey(voucherId),
+                Arrays.asList("begin", SecKillKeys.SEGMENTS_FIELD));
+        if (values.get(0) == null) {
+            // 秒杀券不存在或还未写完，不缓存；此时按分段0处理可能让其他分段的用户重复下单
+            return 0;
+        }
+        int segments = SecKillKeys.parseSegments(values.get(1));
+        segmentsCache.put(voucherId, segments);
+        return segments;
+    }
+
+    /**
+     * 把秒杀脚本的返回值转换为失败结果，库存不足时标记售罄
+     *
+     * @return 扣减成功时返回null
+     */
+    private Result toFailure(Long voucherId, Long code) {
+        switch (code == null ? -1 : code.intValue()) {
+            case 0:
+                return null;
+            case 1:
+                soldOutFlags.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            case 2:
+                return Result.fail("不能重复购买");
+            case 3:
+                return Result.fail("秒杀尚未开始");
+            case 4:
+                return Result.fail("秒杀已经结束");
+            case 5:
+                return Result.fail("优惠券不存在");
+            default:
+                return Result.fail("购买失败");
+        }
+    }
+
+    /**
+     * 时间窗口已由元数据校验，库存由带条件的更新语句校验，不再先查询秒杀券
+     */
+    private Result secKillWithDb(Long voucherId, Long userId) {
+        String lockKey = voucherId + ":" + userId;
+        if (!redisLock.tryLock(lockKey)) {
+            return Result.fail("当前抢购人数过多，请稍后再试");
+        }
+        try {
+            // 在锁内提交事务，避免同一用户的下一个请求在提交前通过重复下单检查
+            return transactionTemplate.execute(status -> {
+                Integer count = query().eq("voucher_id", voucherId).eq("user_id", userId).count();
+                if (count > 0) {
+                    return Result.fail("不能重复购买");
+                }
+                boolean deducted = secKillVoucherService.update()
+                        .setSql("stock = stock - 1")
+                        .eq("voucher_id", voucherId)
+                        .gt("stock", 0)
+                        .update();
+                if (!deducted) {
+                    soldOutFlags.markSoldOut(voucherId);
+                    return Result.fail("库存不足");
+                }
+                VoucherOrder voucherOrder = new VoucherOrder();
+                voucherOrder.setUserId(userId);
+                voucherOrder.setVoucherId(voucherId);
+                save(voucherOrder);
+                return Result.ok(voucherOrder.getId());
+            });
+        } catch (DuplicateKeyException e) {
+            // 锁租约过期等情况下并发请求都通过了检查，由唯一索引拒绝，事务已回滚
+            return Result.fail("不能重复购买");
+        } finally {
+            redisLock.unlock(lockKey);
+        }
+    }
 }
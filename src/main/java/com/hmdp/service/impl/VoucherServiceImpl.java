@@ -8,11 +8,21 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISecKillVoucherService;
 import com.hmdp.service.IVoucherService;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisHashCodec;
+import com.hmdp.utils.SecKillKeys;
+import com.hmdp.utils.SecKillSoldOutFlags;
+import com.hmdp.utils.SecKillVoucherMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -31,6 +41,18 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SecKillVoucherMetadata secKillVoucherMetadata;
+
+    @Resource
+    private SecKillSoldOutFlags soldOutFlags;
+
+    /**
+     * 新增秒杀券时库存拆分的分段数，1 表示不分段
+     */
+    @Value("${hmdp.seckill.stock-segments:1}")
+    private int stockSegments;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -51,7 +73,79 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         secKillVoucherService.save(seckillVoucher);
+        // 事务提交后各节点才接受该秒杀券的请求
+        secKillVoucherMetadata.add(seckillVoucher, voucher.getShopId());
+
+        // 库存为0时也保留一个分段，秒杀脚本据此返回库存不足
+        int segments = Math.max(1, Math.min(stockSegments, voucher.getStock()));
+        saveSegments(seckillVoucher, segments);
+        // 库存已重新写入，清除各节点可能残留的售罄标记
+        soldOutFlags.markRestocked(voucher.getId());
+    }
+
+    /**
+     * 把库存均分到各分段，余数分给前几个分段，每个分段带一份时间窗口，并登记各分段的订单消息流；
+     * 主时间窗口哈希和分段数最后写入，写入前秒杀请求返回秒杀券不存在
+     */
+    private void saveSegments(SecKillVoucher voucher, int segments) {
+        Long voucherId = voucher.getVoucherId();
+        int stock = voucher.getStock();
+        Map<String, String> window = RedisHashCodec.fromSecKillWindow(voucher);
+        Map<byte[], byte[]> windowBytes = new HashMap<>(4);
+        window.forEach((field, value) -> windowBytes.put(toBytes(field), toBytes(value)));
+        double endMillis = Double.parseDouble(window.get("end"));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < segments; i++) {
+                int segmentStock = stock / segments + (i < stock % segments ? 1 : 0);
+                connection.set(toBytes(SecKillKeys.stockKey(voucherId, i)), toBytes(String.valueOf(segmentStock)));
+                connection.hMSet(toBytes(SecKillKeys.windowKey(voucherId, i)), windowBytes);
+                connection.zAdd(toBytes(RedisConstants.SEC_KILL_ORDER_STREAM_INDEX_KEY), endMillis,
+                        toBytes(SecKillKeys.streamKey(voucherId, i)));
+            }
+            return null;
+        });
+        Map<String, String> main = new HashMap<>(window);
+        main.put(SecKillKeys.SEGMENTS_FIELD, String.valueOf(segments));
+        stringRedisTemplate.opsForHash().putAll(SecKillKeys.mainWindowKey(voucherId), main);
+    }
+
+    @Override
+    public Result reconcileSecKillStock(Long voucherId) {
+        SecKillVoucher voucher = secKillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在");
+        }
+        int segments = SecKillKeys.parseSegments(stringRedisTemplate.opsForHash()
+                .get(SecKillKeys.mainWindowKey(voucherId), SecKillKeys.SEGMENTS_FIELD));
+        List<String> keys = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            keys.add(SecKillKeys.stockKey(voucherId, i));
+        }
+        // 各分段可能位于不同分片，逐个 GET 而不是 MGET
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.get(toBytes(key));
+            }
+            return null;
+        });
+        List<Integer> segmentStock = new ArrayList<>(segments);
+        int total = 0;
+        for (Object value : values) {
+            int stock = value == null ? 0 : Integer.parseInt(value.toString());
+            segmentStock.add(stock);
+            total += stock;
+        }
+        Map<String, Object> result = new HashMap<>(8);
+        result.put("segments", segments);
+        result.put("segmentStock", segmentStock);
+        result.put("stock", total);
+        result.put("dbStock", voucher.getStock());
+        // 已在 Redis 中扣减、尚未写入数据库的订单数
+        result.put("pendingOrders", voucher.getStock() - total);
+        return Result.ok(result);
+    }
 
-        stringRedisTemplate.opsForValue().set(RedisConstants.SEC_KILL_STOCK_KEY+voucher.getId(),voucher.getStock().toString());
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
     }
 }
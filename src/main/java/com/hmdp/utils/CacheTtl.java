@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 缓存过期时间相关的工具：
+ * 1. TTL随机抖动，避免同一时刻写入的大量缓存在同一秒集中过期；
+ * 2. XFetch 概率提前刷新，越接近过期、重建耗时越长的条目越可能被提前刷新。
+ *
+ * @author Hikarukimi
+ */
+public final class CacheTtl {
+
+    private CacheTtl() {
+    }
+
+    /**
+     * 在基础TTL上增加 [0, base * ratio] 的随机时长
+     *
+     * @param baseSeconds 基础TTL，单位秒
+     * @param ratio       抖动比例，例如0.1表示最多延长10%
+     * @return 抖动后的TTL，单位秒
+     */
+    public static long jitter(long baseSeconds, double ratio) {
+        long bound = (long) (baseSeconds * ratio);
+        return bound <= 0 ? baseSeconds : baseSeconds + ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * XFetch 算法：now - delta * beta * ln(rand) >= expiry 时提前刷新
+     *
+     * @param expireTime  缓存的过期时间
+     * @param deltaMillis 上一次重建缓存的耗时
+     * @param beta        大于1时更倾向于提前刷新，小于1时更保守
+     * @return 是否应当提前刷新
+     */
+    public static boolean shouldRefreshEarly(LocalDateTime expireTime, long deltaMillis, double beta) {
+        if (expireTime == null) {
+            return false;
+        }
+        double random = ThreadLocalRandom.current().nextDouble();
+        long gap = (long) (-deltaMillis * beta * Math.log(random == 0 ? Double.MIN_VALUE : random));
+        return !LocalDateTime.now().plus(gap, ChronoUnit.MILLIS).isBefore(expireTime);
+    }
+}
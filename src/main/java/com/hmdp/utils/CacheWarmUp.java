@@ -0,0 +1,268 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.SecKillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISecKillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动预热：在应用对外报告就绪之前，把热门商铺和进行中秒杀券的库存写入 Redis，并加载商铺类型快照，
+ * 避免发布或 Redis 故障切换后的冷启动击穿。三类数据在小线程池中并行加载，
+ * 每类数据从 MySQL 分页读取、按页管道写入，整体受时间预算约束，超时后放弃剩余部分。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Order(0)
+@Component
+public class CacheWarmUp implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private ShopTypeSnapshot shopTypeSnapshot;
+
+    @Resource
+    private ISecKillVoucherService secKillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SecKillSoldOutFlags soldOutFlags;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.warm-up.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.warm-up.shop-top-n:1000}")
+    private int shopTopN;
+
+    @Value("${hmdp.warm-up.page-size:200}")
+    private int pageSize;
+
+    @Value("${hmdp.warm-up.threads:3}")
+    private int threads;
+
+    @Value("${hmdp.warm-up.time-budget-seconds:30}")
+    private long timeBudgetSeconds;
+
+    private volatile long deadline;
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        deadline = start + TimeUnit.SECONDS.toMillis(timeBudgetSeconds);
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                ThreadFactoryBuilder.create().setNamePrefix("cache-warm-up-").setDaemon(true).build());
+        executor.execute(() -> runQuietly("商铺", this::warmUpShops));
+        executor.execute(() -> runQuietly("商铺类型", this::warmUpShopTypes));
+        executor.execute(() -> runQuietly("秒杀库存", this::warmUpSecKillStock));
+        executor.shutdown();
+        if (!executor.awaitTermination(timeBudgetSeconds, TimeUnit.SECONDS)) {
+            log.warn("缓存预热超出{}秒的时间预算,剩余部分放弃", timeBudgetSeconds);
+            executor.shutdownNow();
+            return;
+        }
+        log.info("缓存预热完成,耗时{}ms", System.currentTimeMillis() - start);
+    }
+
+    private void runQuietly(String name, Runnable task) {
+        long start = System.currentTimeMillis();
+        try {
+            task.run();
+            log.info("{}预热结束,耗时{}ms", name, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("{}预热失败", name, e);
+        }
+    }
+
+    private boolean timeout() {
+        return System.currentTimeMillis() > deadline || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * 按销量、评分倒序加载前N个商铺
+     */
+    private void warmUpShops() {
+        int pages = (shopTopN + pageSize - 1) / pageSize;
+        int loaded = 0;
+        for (int current = 1; current <= pages && !timeout(); current++) {
+            long begin = System.currentTimeMillis();
+            List<Shop> shops = shopService.query()
+                    .orderByDesc("sold", "score", "id")
+                    .page(new Page<>(current, pageSize, false))
+                    .getRecords();
+            if (shops.size() > shopTopN - loaded) {
+                shops = shops.subList(0, shopTopN - loaded);
+            }
+            shopService.cacheShops(shops, System.currentTimeMillis() - begin);
+            loaded += shops.size();
+            log.info("商铺预热进度:{}/{}", loaded, shopTopN);
+            if (shops.size() < pageSize) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 商铺类型直接由进程内快照提供，不再写入 Redis
+     */
+    private void warmUpShopTypes() {
+        int size = shopTypeSnapshot.refresh().getSize();
+        log.info("商铺类型预热进度:{}/{}", size, size);
+    }
+
+    /**
+     * 加载未结束的秒杀券库存和时间窗口，登记各分段的订单消息流，并从订单表重建已下单用户集合。库存只在 Redis 中不存在时写入，
+     * 避免用数据库中尚未同步的库存覆盖 Redis 中正在扣减的库存；时间窗口以数据库为准直接覆盖。
+     * 分段库存的秒杀券只要主时间窗口中的分段数还在，就继续按分段扣减；Redis 数据丢失后则按一个分段重新加载
+     */
+    private void warmUpSecKillStock() {
+        long lastId = 0;
+        int loaded = 0;
+        while (!timeout()) {
+            List<SecKillVoucher> vouchers = secKillVoucherService.query()
+                    .select("voucher_id", "stock", "begin_time", "end_time")
+                    .gt("end_time", LocalDateTime.now())
+                    .gt("voucher_id", lastId)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + pageSize)
+                    .list();
+            if (!vouchers.isEmpty()) {
+                List<Object> segmentFields = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (SecKillVoucher voucher : vouchers) {
+                        connection.hGet(toBytes(SecKillKeys.mainWindowKey(voucher.getVoucherId())),
+                                toBytes(SecKillKeys.SEGMENTS_FIELD));
+                    }
+                    return null;
+                });
+                int[] segments = new int[vouchers.size()];
+                for (int v = 0; v < vouchers.size(); v++) {
+                    segments[v] = SecKillKeys.parseSegments(segmentFields.get(v));
+                }
+                // 先重建已下单用户集合，再写入时间窗口和库存，Redis 数据丢失后恢复接单时一人一单已经生效
+                for (int v = 0; v < vouchers.size() && !timeout(); v++) {
+                    warmUpBuyers(vouchers.get(v).getVoucherId(), segments[v]);
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (int v = 0; v < vouchers.size(); v++) {
+                        SecKillVoucher voucher = vouchers.get(v);
+                        Long voucherId = voucher.getVoucherId();
+                        Map<String, String> fields = RedisHashCodec.fromSecKillWindow(voucher);
+                        Map<byte[], byte[]> window = new HashMap<>(4);
+                        fields.forEach((field, value) -> window.put(toBytes(field), toBytes(value)));
+                        double endMillis = Double.parseDouble(fields.get("end"));
+                        for (int i = 0; i < segments[v]; i++) {
+                            connection.hMSet(toBytes(SecKillKeys.windowKey(voucherId, i)), window);
+                            connection.zAdd(toBytes(RedisConstants.SEC_KILL_ORDER_STREAM_INDEX_KEY), endMillis,
+                                    toBytes(SecKillKeys.streamKey(voucherId, i)));
+                        }
+                        Map<byte[], byte[]> main = new HashMap<>(window);
+                        main.put(toBytes(SecKillKeys.SEGMENTS_FIELD), toBytes(String.valueOf(segments[v])));
+                        connection.hMSet(toBytes(SecKillKeys.mainWindowKey(voucherId)), main);
+                    }
+                    return null;
+                });
+                warmUpStock(vouchers, segments);
+                lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+                loaded += vouchers.size();
+                log.info("秒杀库存预热进度:已加载{}个秒杀券", loaded);
+            }
+            if (vouchers.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 只有一个分段的秒杀券在库存不存在时按数据库写入。写入了库存的秒杀券清除售罄标记并通知其他节点，
+     * 否则 Redis 数据丢失前标记售罄的节点会一直拦截该秒杀券的请求
+     */
+    private void warmUpStock(List<SecKillVoucher> vouchers, int[] segments) {
+        List<SecKillVoucher> unsegmented = new ArrayList<>(vouchers.size());
+        for (int v = 0; v < vouchers.size(); v++) {
+            if (segments[v] == 1) {
+                unsegmented.add(vouchers.get(v));
+            }
+        }
+        List<Object> written = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SecKillVoucher voucher : unsegmented) {
+                connection.setNX(toBytes(SecKillKeys.stockKey(voucher.getVoucherId(), 0)),
+                        toBytes(voucher.getStock().toString()));
+            }
+            return null;
+        });
+        for (int v = 0; v < unsegmented.size(); v++) {
+            if (Boolean.TRUE.equals(written.get(v)) && unsegmented.get(v).getStock() > 0) {
+                soldOutFlags.markRestocked(unsegmented.get(v).getVoucherId());
+            }
+        }
+    }
+
+    /**
+     * 从订单表重建已下单用户集合，Redis 数据丢失后一人一单仍然有效。
+     * 只添加已落库的用户，不移除任何用户，与进行中的秒杀并发执行也是安全的
+     */
+    private void warmUpBuyers(Long voucherId, int segments) {
+        long lastUserId = 0;
+        while (!timeout()) {
+            List<VoucherOrder> orders = voucherOrderService.query()
+                    .select("user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("user_id", lastUserId)
+                    .orderByAsc("user_id")
+                    .last("limit " + pageSize)
+                    .list();
+            if (!orders.isEmpty()) {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (VoucherOrder order : orders) {
+                        int home = SecKillKeys.homeSegment(order.getUserId(), segments);
+                        connection.sAdd(toBytes(SecKillKeys.orderKey(voucherId, home)),
+                                toBytes(order.getUserId().toString()));
+                    }
+                    return null;
+                });
+                lastUserId = orders.get(orders.size() - 1).getUserId();
+            }
+            if (orders.size() < pageSize) {
+                return;
+            }
+        }
+    }
+
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,252 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 热点key探测：按采样率记录访问，用 Count-Min Sketch 估算每个key的访问次数，
+ * 估算值超过阈值的key进入候选集，每个窗口结束时从候选集中选出访问最多的前K个作为热点，
+ * 随后所有计数减半，使早已冷却的key逐渐退出。
+ * 热点key的查询结果会被短时间固定在进程内，避免单个热点把请求集中打到同一个 Redis 分片。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    public static final String SHOP_KEY_PREFIX = "shop:";
+    public static final String BLOG_HOT_KEY_PREFIX = "blog:hot:";
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1 << 12;
+
+    /**
+     * 采样率，例如0.1表示只记录十分之一的访问
+     */
+    @Value("${hmdp.hot-key.sample-rate:0.1}")
+    private double sampleRate;
+
+    @Value("${hmdp.hot-key.window-seconds:10}")
+    private long windowSeconds;
+
+    @Value("${hmdp.hot-key.top-k:20}")
+    private int topK;
+
+    /**
+     * 估算的采样访问次数达到该值的key才会成为热点候选
+     */
+    @Value("${hmdp.hot-key.threshold:50}")
+    private long threshold;
+
+    @Value("${hmdp.hot-key.pin-ttl-seconds:5}")
+    private long pinTtlSeconds;
+
+    private final AtomicLongArray sketch = new AtomicLongArray(SKETCH_DEPTH * SKETCH_WIDTH);
+
+    /**
+     * 本窗口内估算值超过阈值的key，数量上限为topK的4倍，满了以后淘汰估算值最小的
+     */
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+
+    /**
+     * 上一个窗口选出的热点key及其估算的访问次数，按次数从高到低排列
+     */
+    private volatile Map<String, Long> hotKeys = Collections.emptyMap();
+
+    private LRUCache<String, Result> pinned;
+
+    private ScheduledExecutorService windowExecutor;
+
+    private final LongAdder sampledCount = new LongAdder();
+    private final LongAdder pinnedHitCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        pinned = CacheUtil.newLRUCache(topK, TimeUnit.SECONDS.toMillis(pinTtlSeconds));
+        windowExecutor = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("hot-key-window-").setDaemon(true).build());
+        windowExecutor.scheduleAtFixedRate(this::rotate, windowSeconds, windowSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        windowExecutor.shutdown();
+    }
+
+    /**
+     * 记录一次访问，热点key直接返回固定在进程内的结果，否则调用loader查询，
+     * 只有成功的结果会被固定
+     *
+     * @param key    业务key，例如 shop:1
+     * @param loader 实际的查询
+     * @return 查询结果
+     */
+    public Result execute(String key, Supplier<Result> loader) {
+        record(key);
+        if (!hotKeys.containsKey(key)) {
+            return loader.get();
+        }
+        Result result = pinned.get(key, false);
+        if (result != null) {
+            pinnedHitCount.increment();
+            return result;
+        }
+        result = loader.get();
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            pinned.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * 按采样率记录一次访问
+     */
+    public void record(String key) {
+        if (ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        sampledCount.increment();
+        long hash1 = mix64(key.hashCode());
+        long hash2 = mix64(hash1 ^ key.length());
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int index = i * SKETCH_WIDTH + (int) (((hash1 + i * hash2) & Long.MAX_VALUE) % SKETCH_WIDTH);
+            estimate = Math.min(estimate, sketch.incrementAndGet(index));
+        }
+        if (estimate < threshold) {
+            return;
+        }
+        long current = estimate;
+        if (candidates.computeIfPresent(key, (k, v) -> Math.max(v, current)) == null) {
+            admit(key, current);
+        }
+    }
+
+    /**
+     * 候选集未满时直接加入；已满时估算值必须超过当前最小的候选，并将其淘汰，
+     * 窗口后期才变热的key不会因为候选集被先到的key占满而落选
+     */
+    private void admit(String key, long estimate) {
+        synchronized (candidates) {
+            if (candidates.size() < topK * 4) {
+                candidates.merge(key, estimate, Math::max);
+                return;
+            }
+            String minKey = null;
+            long min = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+                if (entry.getValue() < min) {
+                    minKey = entry.getKey();
+                    min = entry.getValue();
+                }
+            }
+            if (minKey != null && estimate > min) {
+                candidates.remove(minKey);
+                candidates.put(key, estimate);
+            }
+        }
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 删除本节点固定的结果，数据修改后调用；其他节点的固定结果最多在pin-ttl-seconds后过期
+     */
+    public void invalidate(String key) {
+        pinned.remove(key);
+    }
+
+    /**
+     * 窗口结束：用小顶堆从候选集中选出前K个热点，然后所有计数减半
+     */
+    private void rotate() {
+        try {
+            PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(topK + 1, Map.Entry.comparingByValue());
+            for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+                heap.offer(entry);
+                if (heap.size() > topK) {
+                    heap.poll();
+                }
+            }
+            List<Map.Entry<String, Long>> top = new ArrayList<>(heap);
+            top.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            Map<String, Long> next = new LinkedHashMap<>(top.size() * 2);
+            for (Map.Entry<String, Long> entry : top) {
+                next.put(entry.getKey(), entry.getValue());
+            }
+            // 不再是热点的key立即取消固定
+            for (String key : hotKeys.keySet()) {
+                if (!next.containsKey(key)) {
+                    pinned.remove(key);
+                }
+            }
+            hotKeys = next;
+            candidates.clear();
+            for (int i = 0; i < sketch.length(); i++) {
+                long value;
+                do {
+                    value = sketch.get(i);
+                } while (value != 0 && !sketch.compareAndSet(i, value, value >>> 1));
+            }
+            if (!next.isEmpty()) {
+                log.debug("热点key:{}", next);
+            }
+        } catch (Exception e) {
+            log.error("热点key窗口切换失败", e);
+        }
+    }
+
+    /**
+     * 当前热点key及按采样率换算后的访问次数估算
+     */
+    public Map<String, Object> stats() {
+        Map<String, Long> estimated = new LinkedHashMap<>(hotKeys.size() * 2);
+        hotKeys.forEach((key, count) -> estimated.put(key, (long) (count / sampleRate)));
+        Map<String, Object> stats = new HashMap<>(16);
+        stats.put("hotKeys", estimated);
+        stats.put("sampleRate", sampleRate);
+        stats.put("windowSeconds", windowSeconds);
+        stats.put("topK", topK);
+        stats.put("threshold", threshold);
+        stats.put("candidateCount", candidates.size());
+        stats.put("sampledCount", sampledCount.sum());
+        stats.put("pinnedSize", pinned.size());
+        stats.put("pinnedHitCount", pinnedHitCount.sum());
+        return stats;
+    }
+
+    /**
+     * MurmurHash3 的 fmix64 混淆函数
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
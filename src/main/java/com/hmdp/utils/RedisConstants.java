@@ -13,12 +13,28 @@ public class RedisConstants {
 
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final Long CACHE_SHOP_TTL = 30L;
-    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type:";
+    public static final String SHOP_TYPE_REFRESH_CHANNEL = "shop:type:refresh";
+    public static final String RESPONSE_CACHE_EVICT_CHANNEL = "cache:response:evict";
+    public static final String CACHE_SHOP_INVALIDATE_CHANNEL = "cache:shop:invalidate";
+    public static final String SHOP_BLOOM_ADD_CHANNEL = "shop:bloom:add";
+    public static final String SHOP_NAME_INDEX_CHANNEL = "shop:name:index";
 
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final String RATE_LIMIT_KEY = "limit:";
+
+    public static final String LOCK_RELEASE_CHANNEL = "lock:released";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SEC_KILL_STOCK_KEY = "secKill:stock:";
+    public static final String SEC_KILL_ORDER_KEY = "secKill:order:";
+    public static final String SEC_KILL_WINDOW_KEY = "secKill:window:";
+    public static final String SEC_KILL_RESTOCKED_KEY = "secKill:restocked:";
+    public static final String SEC_KILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SEC_KILL_ORDER_STREAM_INDEX_KEY = "stream.orders.index";
+    public static final String SEC_KILL_ORDER_DEAD_LETTER_KEY = "stream.orders.dead";
+    public static final String SEC_KILL_SOLD_OUT_CHANNEL = "secKill:soldOut";
+    public static final String SEC_KILL_VOUCHER_REFRESH_CHANNEL = "secKill:voucher:refresh";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
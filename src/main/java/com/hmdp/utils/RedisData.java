@@ -10,5 +10,9 @@ import java.time.LocalDateTime;
 @Data
 public class RedisData {
     private LocalDateTime expireTime;
+    /**
+     * 上一次重建该缓存的耗时，单位毫秒，用于概率提前刷新
+     */
+    private long delta;
     private Object data;
 }
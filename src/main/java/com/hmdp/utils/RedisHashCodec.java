@@ -0,0 +1,173 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.SecKillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 实体与 Redis Hash 之间的编解码器，按字段逐个手写映射，不使用反射。
+ * 字段名与取值格式和 BeanUtil.beanToMap + toString 的结果保持一致，
+ * 新旧代码写入的缓存可以互相读取。值为null的字段不写入。
+ *
+ * @author Hikarukimi
+ */
+public final class RedisHashCodec {
+
+    private RedisHashCodec() {
+    }
+
+    public static Map<String, String> fromShop(Shop shop) {
+        Map<String, String> map = new HashMap<>(32);
+        put(map, "id", shop.getId());
+        put(map, "name", shop.getName());
+        put(map, "typeId", shop.getTypeId());
+        put(map, "images", shop.getImages());
+        put(map, "area", shop.getArea());
+        put(map, "address", shop.getAddress());
+        put(map, "x", shop.getX());
+        put(map, "y", shop.getY());
+        put(map, "avgPrice", shop.getAvgPrice());
+        put(map, "sold", shop.getSold());
+        put(map, "comments", shop.getComments());
+        put(map, "score", shop.getScore());
+        put(map, "openHours", shop.getOpenHours());
+        put(map, "createTime", shop.getCreateTime());
+        put(map, "updateTime", shop.getUpdateTime());
+        put(map, "version", shop.getVersion());
+        return map;
+    }
+
+    /**
+     * @return 商铺信息，哈希为空或缺少id字段时返回null
+     */
+    public static Shop toShop(Map<?, ?> map) {
+        Long id = toLong(map.get("id"));
+        if (id == null) {
+            return null;
+        }
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName(toStr(map.get("name")));
+        shop.setTypeId(toLong(map.get("typeId")));
+        shop.setImages(toStr(map.get("images")));
+        shop.setArea(toStr(map.get("area")));
+        shop.setAddress(toStr(map.get("address")));
+        shop.setX(toDouble(map.get("x")));
+        shop.setY(toDouble(map.get("y")));
+        shop.setAvgPrice(toLong(map.get("avgPrice")));
+        shop.setSold(toInt(map.get("sold")));
+        shop.setComments(toInt(map.get("comments")));
+        shop.setScore(toInt(map.get("score")));
+        shop.setOpenHours(toStr(map.get("openHours")));
+        shop.setCreateTime(toTime(map.get("createTime")));
+        shop.setUpdateTime(toTime(map.get("updateTime")));
+        shop.setVersion(toLong(map.get("version")));
+        return shop;
+    }
+
+    public static Map<String, String> fromUser(User user) {
+        Map<String, String> map = new HashMap<>(16);
+        put(map, "id", user.getId());
+        put(map, "phone", user.getPhone());
+        put(map, "password", user.getPassword());
+        put(map, "nickName", user.getNickName());
+        put(map, "icon", user.getIcon());
+        put(map, "createTime", user.getCreateTime());
+        put(map, "updateTime", user.getUpdateTime());
+        return map;
+    }
+
+    /**
+     * @return 用户信息，哈希为空或缺少id字段时返回null
+     */
+    public static User toUser(Map<?, ?> map) {
+        Long id = toLong(map.get("id"));
+        if (id == null) {
+            return null;
+        }
+        User user = new User();
+        user.setId(id);
+        user.setPhone(toStr(map.get("phone")));
+        user.setPassword(toStr(map.get("password")));
+        user.setNickName(toStr(map.get("nickName")));
+        user.setIcon(toStr(map.get("icon")));
+        user.setCreateTime(toTime(map.get("createTime")));
+        user.setUpdateTime(toTime(map.get("updateTime")));
+        return user;
+    }
+
+    public static Map<String, String> fromUserDto(UserDTO userDTO) {
+        Map<String, String> map = new HashMap<>(8);
+        put(map, "id", userDTO.getId());
+        put(map, "nickName", userDTO.getNickName());
+        put(map, "icon", userDTO.getIcon());
+        return map;
+    }
+
+    /**
+     * 登录用户哈希中保存的是完整的 User 字段，这里只取 UserDTO 需要的三个字段
+     *
+     * @return 用户信息，哈希为空或缺少id字段时返回null
+     */
+    public static UserDTO toUserDto(Map<?, ?> map) {
+        Long id = toLong(map.get("id"));
+        if (id == null) {
+            return null;
+        }
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(id);
+        userDTO.setNickName(toStr(map.get("nickName")));
+        userDTO.setIcon(toStr(map.get("icon")));
+        return userDTO;
+    }
+
+    /**
+     * 秒杀时间窗口，begin 和 end 为毫秒时间戳，供秒杀 Lua 脚本直接比较
+     */
+    public static Map<String, String> fromSecKillWindow(SecKillVoucher voucher) {
+        Map<String, String> map = new HashMap<>(4);
+        put(map, "begin", toEpochMilli(voucher.getBeginTime()));
+        put(map, "end", toEpochMilli(voucher.getEndTime()));
+        return map;
+    }
+
+    private static Long toEpochMilli(LocalDateTime time) {
+        return time == null ? null : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static void put(Map<String, String> map, String field, Object value) {
+        if (value != null) {
+            map.put(field, value.toString());
+        }
+    }
+
+    private static String toStr(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static Long toLong(Object value) {
+        return isEmpty(value) ? null : Long.valueOf(value.toString());
+    }
+
+    private static Integer toInt(Object value) {
+        return isEmpty(value) ? null : Integer.valueOf(value.toString());
+    }
+
+    private static Double toDouble(Object value) {
+        return isEmpty(value) ? null : Double.valueOf(value.toString());
+    }
+
+    private static LocalDateTime toTime(Object value) {
+        return isEmpty(value) ? null : LocalDateTime.parse(value.toString());
+    }
+
+    private static boolean isEmpty(Object value) {
+        return value == null || value.toString().isEmpty();
+    }
+}
@@ -1,43 +1,279 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
-import java.time.Duration;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * 可重入的 Redis 分布式锁。
+ * <ul>
+ *     <li>锁为哈希结构，字段为持有者（节点标识+线程id），值为重入次数，同一线程可以重复加锁</li>
+ *     <li>租约只有 lease-millis，持有期间由看门狗每隔三分之一租约续租，持有者崩溃后锁很快过期</li>
+ *     <li>加锁前先获取该 key 的本地锁，同一节点上争抢同一个 key 的线程在内存中排队，不访问 Redis；
+ *     本地锁按引用计数在无人持有和等待时移除，不同的 key 互不影响</li>
+ *     <li>锁被其他节点持有时最多等待 wait-millis，释放时通过 {@link RedisConstants#LOCK_RELEASE_CHANNEL}
+ *     通知等待者立即重试，通知丢失时按退避时间重试</li>
+ * </ul>
+ *
  * @author Hikarukimi
  */
+@Slf4j
 @Component
-public class RedisLock {
+public class RedisLock implements MessageListener {
 
-    private static final DefaultRedisScript<Long> LUA_SCRIPT;
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
     private static final String LOCK_PREFIX = "lock:";
+    private static final long ACQUIRED = -1L;
+    private static final long MIN_BACKOFF_MILLIS = 20L;
+    private static final long MAX_BACKOFF_MILLIS = 500L;
 
     static {
-        LUA_SCRIPT = new DefaultRedisScript<>();
-        LUA_SCRIPT.setLocation(new ClassPathResource("redis_lock.lua"));
-        LUA_SCRIPT.setResultType(Long.class);
+        ACQUIRE_SCRIPT = new DefaultRedisScript<>();
+        ACQUIRE_SCRIPT.setLocation(new ClassPathResource("redis_lock_acquire.lua"));
+        ACQUIRE_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("redis_lock_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("redis_lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
     }
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    private final RedisMessageListenerContainer listenerContainer;
+
+    @Value("${hmdp.lock.lease-millis:30000}")
+    private long leaseMillis;
+
+    @Value("${hmdp.lock.wait-millis:300}")
+    private long waitMillis;
+
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    /**
+     * 锁key -> 本节点的本地锁，持有和等待的线程都计入引用
+     */
+    private final Map<String, LocalLock> localLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点持有的锁key -> 持有者，看门狗据此续租
+     */
+    private final Map<String, String> held = new ConcurrentHashMap<>();
+
+    /**
+     * 等待其他节点释放的锁key -> 等待对象
+     */
+    private final Map<String, Object> waiters = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService watchdog;
+
     @Autowired
-    public RedisLock(StringRedisTemplate stringRedisTemplate) {
+    public RedisLock(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
     }
 
-    public boolean lock(String key, String value) {
-        String lockKey = LOCK_PREFIX + key;
-        return Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(lockKey, value, Duration.ofSeconds(300)));
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.LOCK_RELEASE_CHANNEL));
+        watchdog = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("redis-lock-watchdog-").setDaemon(true).build());
+        long interval = Math.max(1L, leaseMillis / 3);
+        watchdog.scheduleWithFixedDelay(this::renewAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (watchdog != null) {
+            watchdog.shutdown();
+        }
+    }
+
+    /**
+     * 加锁，最多等待 wait-millis
+     */
+    public boolean tryLock(String key) {
+        return tryLock(key, waitMillis);
+    }
+
+    /**
+     * 加锁，最多等待 waitMillis 毫秒，成功后必须在同一线程中调用 {@link #unlock(String)}
+     */
+    public boolean tryLock(String key, long waitMillis) {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        LocalLock local = retain(key);
+        boolean locked = false;
+        try {
+            if (!local.lock.tryLock(waitMillis, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            try {
+                locked = acquire(LOCK_PREFIX + key, deadline);
+                return locked;
+            } finally {
+                if (!locked) {
+                    local.lock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (!locked) {
+                release(key);
+            }
+        }
     }
 
-    public void unlock(String key, String value) {
+    public void unlock(String key) {
         String lockKey = LOCK_PREFIX + key;
-        stringRedisTemplate.execute(LUA_SCRIPT, Collections.singletonList(lockKey), value);
+        LocalLock local = localLocks.get(key);
+        if (local == null || !local.lock.isHeldByCurrentThread()) {
+            log.warn("当前线程未持有锁:{}", lockKey);
+            return;
+        }
+        boolean last = local.lock.getHoldCount() == 1;
+        try {
+            Long result = stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(lockKey),
+                    owner(), String.valueOf(leaseMillis), RedisConstants.LOCK_RELEASE_CHANNEL);
+            if (result == null || result == 0L) {
+                log.warn("锁已过期或被其他持有者占用:{}", lockKey);
+                held.remove(lockKey);
+            }
+        } finally {
+            if (last) {
+                // 最后一次释放时无论脚本是否执行成功都停止续租，脚本失败时 Redis 中的锁在租约到期后释放
+                held.remove(lockKey);
+            }
+            local.lock.unlock();
+            release(key);
+        }
     }
-}
 
+    private LocalLock retain(String key) {
+        return localLocks.compute(key, (k, local) -> {
+            LocalLock retained = local == null ? new LocalLock() : local;
+            retained.refs++;
+            return retained;
+        });
+    }
+
+    /**
+     * 引用归零时移除，之后再加锁的线程会创建新的本地锁
+     */
+    private void release(String key) {
+        localLocks.computeIfPresent(key, (k, local) -> --local.refs == 0 ? null : local);
+    }
+
+    /**
+     * 在 Redis 中加锁，锁被其他节点持有时等待释放通知或退避后重试
+     */
+    private boolean acquire(String lockKey, long deadline) {
+        List<String> keys = Collections.singletonList(lockKey);
+        String owner = owner();
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            Long ttl = stringRedisTemplate.execute(ACQUIRE_SCRIPT, keys, owner, String.valueOf(leaseMillis));
+            if (ttl != null && ttl == ACQUIRED) {
+                held.put(lockKey, owner);
+                return true;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            long wait = Math.min(remaining, backoff);
+            if (ttl != null && ttl > 0) {
+                wait = Math.min(wait, ttl);
+            }
+            if (!await(lockKey, wait)) {
+                return false;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * @return 被中断时返回false
+     */
+    private boolean await(String lockKey, long millis) {
+        Object monitor = waiters.computeIfAbsent(lockKey, k -> new Object());
+        try {
+            synchronized (monitor) {
+                monitor.wait(millis);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            // 本节点同一个 key 的等待者已被本地锁串行化，等待结束即可移除
+            waiters.remove(lockKey, monitor);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Object monitor = waiters.get(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (monitor != null) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 看门狗：为本节点仍持有的锁续租，续租失败说明锁已过期被他人占用
+     */
+    private void renewAll() {
+        held.forEach((lockKey, owner) -> {
+            try {
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(lockKey),
+                        owner, String.valueOf(leaseMillis));
+                if (renewed == null || renewed == 0L) {
+                    log.warn("锁续租失败,已不再持有:{}", lockKey);
+                    held.remove(lockKey, owner);
+                }
+            } catch (Exception e) {
+                log.error("锁续租异常:{}", lockKey, e);
+            }
+        });
+    }
+
+    private String owner() {
+        return nodeId + ":" + Thread.currentThread().getId();
+    }
+
+    private static final class LocalLock {
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * 持有（含重入）和等待的次数，只在 {@link #localLocks} 的 compute 中修改
+         */
+        private int refs;
+    }
+}
@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已序列化的接口响应体缓存，每个缓存名称对应一个有容量上限的LRU缓存。
+ * 清除时按名称整体清除，并通过 Redis 发布/订阅通知其他节点。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class ResponseBodyCache implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 每个缓存名称最多保存的响应数量
+     */
+    @Value("${hmdp.response-cache.capacity:500}")
+    private int capacity;
+
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.RESPONSE_CACHE_EVICT_CHANNEL));
+    }
+
+    /**
+     * @return 缓存的响应体，不存在或已过期时返回null
+     */
+    public byte[] get(String name, String key) {
+        Region region = region(name);
+        byte[] body = region.cache.get(key, false);
+        if (body == null) {
+            region.missCount.increment();
+        } else {
+            region.hitCount.increment();
+            region.bytesServed.add(body.length);
+        }
+        return body;
+    }
+
+    public void put(String name, String key, byte[] body, long ttlSeconds) {
+        region(name).cache.put(key, body, TimeUnit.SECONDS.toMillis(ttlSeconds));
+    }
+
+    /**
+     * 清除本节点该名称下的全部响应并通知其他节点清除
+     */
+    public void evict(String name) {
+        evictLocal(name);
+        stringRedisTemplate.convertAndSend(RedisConstants.RESPONSE_CACHE_EVICT_CHANNEL, name);
+    }
+
+    private void evictLocal(String name) {
+        Region region = region(name);
+        region.cache.clear();
+        region.evictCount.increment();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        evictLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private Region region(String name) {
+        return regions.computeIfAbsent(name, n -> new Region(capacity));
+    }
+
+    /**
+     * 各缓存名称的命中率与直接写出的字节数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>(regions.size() * 2);
+        regions.forEach((name, region) -> {
+            long hits = region.hitCount.sum();
+            long misses = region.missCount.sum();
+            Map<String, Object> item = new HashMap<>(8);
+            item.put("size", region.cache.size());
+            item.put("hitCount", hits);
+            item.put("missCount", misses);
+            item.put("hitRate", hits + misses == 0 ? 0D : (double) hits / (hits + misses));
+            item.put("bytesServed", region.bytesServed.sum());
+            item.put("evictCount", region.evictCount.sum());
+            stats.put(name, item);
+        });
+        return stats;
+    }
+
+    private static final class Region {
+        private final LRUCache<String, byte[]> cache;
+        private final LongAdder hitCount = new LongAdder();
+        private final LongAdder missCount = new LongAdder();
+        private final LongAdder bytesServed = new LongAdder();
+        private final LongAdder evictCount = new LongAdder();
+
+        private Region(int capacity) {
+            this.cache = CacheUtil.newLRUCache(capacity);
+        }
+    }
+}
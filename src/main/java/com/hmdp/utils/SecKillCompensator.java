@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 撤销已在 Redis 中扣减、但最终无法写入数据库的秒杀订单：归还库存、移出已下单用户集合并清除售罄标记，
+ * 用户可以重新抢购；数据库因一人一单拒绝写入的重复订单则只归还库存。
+ * 分段库存的秒杀券统一归还到用户所在分段，总库存不变。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class SecKillCompensator {
+
+    private static final DefaultRedisScript<Long> ROLLBACK_SCRIPT;
+    private static final DefaultRedisScript<Long> RESTOCK_SCRIPT;
+
+    /**
+     * 已归还订单id集合的过期时间，远长于消息的重新投递周期
+     */
+    private static final long RESTOCKED_TTL_SECONDS = TimeUnit.DAYS.toSeconds(7);
+
+    static {
+        ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        ROLLBACK_SCRIPT.setLocation(new ClassPathResource("seckill_rollback.lua"));
+        ROLLBACK_SCRIPT.setResultType(Long.class);
+        RESTOCK_SCRIPT = new DefaultRedisScript<>();
+        RESTOCK_SCRIPT.setLocation(new ClassPathResource("seckill_restock.lua"));
+        RESTOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SecKillSoldOutFlags soldOutFlags;
+
+    /**
+     * @return 是否归还了库存，用户不在已下单集合中说明已经撤销过
+     */
+    public boolean compensate(VoucherOrder order) {
+        Long voucherId = order.getVoucherId();
+        int segments = SecKillKeys.parseSegments(stringRedisTemplate.opsForHash()
+                .get(SecKillKeys.mainWindowKey(voucherId), SecKillKeys.SEGMENTS_FIELD));
+        int home = SecKillKeys.homeSegment(order.getUserId(), segments);
+        List<String> keys = Arrays.asList(SecKillKeys.stockKey(voucherId, home), SecKillKeys.orderKey(voucherId, home));
+        Long restocked = stringRedisTemplate.execute(ROLLBACK_SCRIPT, keys, order.getUserId().toString());
+        if (restocked == null || restocked != 1L) {
+            return false;
+        }
+        soldOutFlags.markRestocked(voucherId);
+        log.warn("已撤销无法写入数据库的秒杀订单:{}", order);
+        return true;
+    }
+
+    /**
+     * 归还数据库因一人一单拒绝写入的重复订单占用的库存。用户已有订单，仍留在已下单用户集合中；
+     * 同一订单重复投递时只归还一次
+     *
+     * @return 是否归还了库存
+     */
+    public boolean restock(VoucherOrder order) {
+        Long voucherId = order.getVoucherId();
+        int segments = SecKillKeys.parseSegments(stringRedisTemplate.opsForHash()
+                .get(SecKillKeys.mainWindowKey(voucherId), SecKillKeys.SEGMENTS_FIELD));
+        int home = SecKillKeys.homeSegment(order.getUserId(), segments);
+        Long restocked = stringRedisTemplate.execute(RESTOCK_SCRIPT,
+                Arrays.asList(SecKillKeys.stockKey(voucherId, home), SecKillKeys.restockedKey(voucherId, home)),
+                order.getId().toString(), String.valueOf(RESTOCKED_TTL_SECONDS));
+        if (restocked == null || restocked != 1L) {
+            return false;
+        }
+        soldOutFlags.markRestocked(voucherId);
+        log.warn("用户已有该秒杀券的订单,归还重复订单的库存:{}", order);
+        return true;
+    }
+}
@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+/**
+ * 秒杀券的 Redis key。
+ * 库存被拆分到一个或多个分段，秒杀券 v 的分段 i 的库存、已下单用户集合、时间窗口和订单消息流都带有哈希标签 {v:si}，
+ * 保证同一分段的 key 落在同一个槽位，秒杀脚本可以在集群中原子地操作它们；
+ * 标签包含秒杀券id，不同秒杀券、不同分段落在不同槽位，热点秒杀券的扣减分散到多个分片上。
+ * 未分段的秒杀券只有分段 0。
+ * <p>
+ * 主时间窗口哈希 {@link RedisConstants#SEC_KILL_WINDOW_KEY} 不带标签，记录时间窗口和分段数，只被单独读取。
+ *
+ * @author Hikarukimi
+ */
+public final class SecKillKeys {
+
+    /**
+     * 主时间窗口哈希 {@link RedisConstants#SEC_KILL_WINDOW_KEY} 中记录分段数的字段，不存在时表示只有一个分段
+     */
+    public static final String SEGMENTS_FIELD = "segments";
+
+    private SecKillKeys() {
+    }
+
+    public static String stockKey(Long voucherId, int segment) {
+        return RedisConstants.SEC_KILL_STOCK_KEY + tag(voucherId, segment);
+    }
+
+    public static String orderKey(Long voucherId, int segment) {
+        return RedisConstants.SEC_KILL_ORDER_KEY + tag(voucherId, segment);
+    }
+
+    public static String windowKey(Long voucherId, int segment) {
+        return RedisConstants.SEC_KILL_WINDOW_KEY + tag(voucherId, segment);
+    }
+
+    /**
+     * 数据库拒绝写入的重复订单中已归还库存的订单id集合
+     */
+    public static String restockedKey(Long voucherId, int segment) {
+        return RedisConstants.SEC_KILL_RESTOCKED_KEY + tag(voucherId, segment);
+    }
+
+    /**
+     * 秒杀券分段的订单消息流，登记在 {@link RedisConstants#SEC_KILL_ORDER_STREAM_INDEX_KEY} 中供消费者发现
+     */
+    public static String streamKey(Long voucherId, int segment) {
+        return RedisConstants.SEC_KILL_ORDER_STREAM_KEY + ":" + tag(voucherId, segment);
+    }
+
+    /**
+     * 主时间窗口哈希
+     */
+    public static String mainWindowKey(Long voucherId) {
+        return RedisConstants.SEC_KILL_WINDOW_KEY + voucherId;
+    }
+
+    /**
+     * 用户所属的分段，同一用户总是路由到同一分段，一人一单只需检查这一个分段
+     */
+    public static int homeSegment(Long userId, int segments) {
+        return (int) Math.floorMod(userId, (long) segments);
+    }
+
+    /**
+     * 解析主时间窗口哈希中的分段数
+     */
+    public static int parseSegments(Object field) {
+        return field == null ? 1 : Integer.parseInt(field.toString());
+    }
+
+    private static String tag(Long voucherId, int segment) {
+        return "{" + voucherId + ":s" + segment + "}";
+    }
+}
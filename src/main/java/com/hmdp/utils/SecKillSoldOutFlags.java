@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀券售罄标记，保存在进程内。Redis 或数据库返回库存不足时标记售罄并通知其他节点，
+ * 之后该秒杀券的请求在访问 Redis 和数据库之前直接返回。
+ * 库存被归还时清除标记，同样通知其他节点。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class SecKillSoldOutFlags implements MessageListener {
+
+    private static final String SOLD_OUT = "soldOut";
+    private static final String RESTOCK = "restock";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    private final Set<Long> soldOut = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder shortCircuitCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SEC_KILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 是否已售罄，命中时计入拦截次数
+     */
+    public boolean isSoldOut(Long voucherId) {
+        if (soldOut.contains(voucherId)) {
+            shortCircuitCount.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 标记售罄，本节点首次标记时通知其他节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.add(voucherId)) {
+            stringRedisTemplate.convertAndSend(RedisConstants.SEC_KILL_SOLD_OUT_CHANNEL, SOLD_OUT + ":" + voucherId);
+        }
+    }
+
+    /**
+     * 库存被归还后清除标记并通知其他节点
+     */
+    public void markRestocked(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SEC_KILL_SOLD_OUT_CHANNEL, RESTOCK + ":" + voucherId);
+    }
+
+    /**
+     * 已售罄的秒杀券及被直接拦截的请求数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>(4);
+        stats.put("soldOutVoucherIds", new ArrayList<>(soldOut));
+        stats.put("shortCircuitCount", shortCircuitCount.sum());
+        return stats;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int split = body.indexOf(':');
+        try {
+            Long voucherId = Long.valueOf(body.substring(split + 1));
+            if (SOLD_OUT.equals(body.substring(0, split))) {
+                soldOut.add(voucherId);
+            } else {
+                soldOut.remove(voucherId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("无法解析的秒杀券售罄消息:{}", body);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SecKillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.SecKillVoucherMapper;
+import com.hmdp.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 未结束秒杀券的元数据（时间窗口、库存、所属商铺），保存在进程内。
+ * 秒杀请求据此拒绝不存在、未开始或已结束的秒杀券，不访问 Redis 和数据库。
+ * <p>
+ * 启动时从数据库加载，之后每隔 refresh-interval-millis 全量刷新一次并丢弃已结束的秒杀券；
+ * 新增秒杀券的事务提交后写入本地，并向 {@link RedisConstants#SEC_KILL_VOUCHER_REFRESH_CHANNEL}
+ * 发布秒杀券id，其他节点收到后从数据库加载该秒杀券。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class SecKillVoucherMetadata implements MessageListener {
+
+    @Resource
+    private SecKillVoucherMapper secKillVoucherMapper;
+
+    @Resource
+    private VoucherMapper voucherMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 写时复制，读取时不加锁
+     */
+    private volatile Map<Long, Metadata> vouchers = Collections.emptyMap();
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SEC_KILL_VOUCHER_REFRESH_CHANNEL));
+        try {
+            refresh();
+        } catch (Exception e) {
+            // 由定时刷新补齐，期间所有秒杀请求按秒杀券不存在拒绝
+            log.error("秒杀券元数据加载失败", e);
+        }
+    }
+
+    /**
+     * @return 秒杀券不存在或已结束并被清理时返回null
+     */
+    public Metadata get(Long voucherId) {
+        return vouchers.get(voucherId);
+    }
+
+    /**
+     * 从数据库重新加载所有未结束的秒杀券
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.metadata.refresh-interval-millis:60000}",
+            initialDelayString = "${hmdp.seckill.metadata.refresh-interval-millis:60000}")
+    public synchronized void refresh() {
+        List<SecKillVoucher> secKillVouchers = secKillVoucherMapper.selectList(new QueryWrapper<SecKillVoucher>()
+                .select("voucher_id", "stock", "begin_time", "end_time")
+                .gt("end_time", LocalDateTime.now()));
+        Map<Long, Long> shopIds = shopIdsOf(secKillVouchers);
+        Map<Long, Metadata> loaded = new HashMap<>(secKillVouchers.size() * 2);
+        for (SecKillVoucher voucher : secKillVouchers) {
+            loaded.put(voucher.getVoucherId(), new Metadata(voucher, shopIds.get(voucher.getVoucherId())));
+        }
+        vouchers = loaded;
+        log.info("秒杀券元数据已加载,共{}个未结束的秒杀券", loaded.size());
+    }
+
+    /**
+     * 新增秒杀券后调用，在事务中调用时等到提交后才生效
+     */
+    public void add(SecKillVoucher voucher, Long shopId) {
+        Metadata metadata = new Metadata(voucher, shopId);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            addAndPublish(metadata);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                addAndPublish(metadata);
+            }
+        });
+    }
+
+    private void addAndPublish(Metadata metadata) {
+        put(metadata);
+        stringRedisTemplate.convertAndSend(RedisConstants.SEC_KILL_VOUCHER_REFRESH_CHANNEL,
+                metadata.getVoucherId().toString());
+    }
+
+    private synchronized void put(Metadata metadata) {
+        Map<Long, Metadata> copy = new HashMap<>(vouchers);
+        copy.put(metadata.getVoucherId(), metadata);
+        vouchers = copy;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long voucherId = Long.valueOf(body);
+            SecKillVoucher voucher = secKillVoucherMapper.selectById(voucherId);
+            if (voucher == null) {
+                log.warn("收到不存在的秒杀券元数据通知:{}", voucherId);
+                return;
+            }
+            Voucher parent = voucherMapper.selectById(voucherId);
+            put(new Metadata(voucher, parent == null ? null : parent.getShopId()));
+        } catch (Exception e) {
+            log.error("秒杀券元数据加载失败,等待下一次定时刷新:{}", body, e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>(2);
+        stats.put("size", vouchers.size());
+        return stats;
+    }
+
+    private Map<Long, Long> shopIdsOf(List<SecKillVoucher> secKillVouchers) {
+        if (secKillVouchers.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<Long> ids = secKillVouchers.stream().map(SecKillVoucher::getVoucherId).collect(Collectors.toList());
+        return voucherMapper.selectList(new QueryWrapper<Voucher>().select("id", "shop_id").in("id", ids))
+                .stream()
+                .filter(voucher -> voucher.getShopId() != null)
+                .collect(Collectors.toMap(Voucher::getId, Voucher::getShopId));
+    }
+
+    /**
+     * 不可变的秒杀券元数据，时间为毫秒时间戳
+     */
+    public static final class Metadata {
+        private final Long voucherId;
+        private final Long shopId;
+        private final int stock;
+        private final long beginTime;
+        private final long endTime;
+
+        private Metadata(SecKillVoucher voucher, Long shopId) {
+            this.voucherId = voucher.getVoucherId();
+            this.shopId = shopId;
+            this.stock = voucher.getStock();
+            this.beginTime = toEpochMilli(voucher.getBeginTime());
+            this.endTime = toEpochMilli(voucher.getEndTime());
+        }
+
+        private static long toEpochMilli(LocalDateTime time) {
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+
+        public Long getVoucherId() {
+            return voucherId;
+        }
+
+        public Long getShopId() {
+            return shopId;
+        }
+
+        /**
+         * 新增时的初始库存，定时刷新后为当时数据库中的库存，只用于展示，扣减以 Redis 或数据库为准
+         */
+        public int getStock() {
+            return stock;
+        }
+
+        public long getBeginTime() {
+            return beginTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+    }
+}
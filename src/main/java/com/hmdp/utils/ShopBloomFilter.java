@@ -0,0 +1,261 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 商铺id的布隆过滤器，保存在进程内，启动时从tb_shop分页加载全部id。
+ * 新增商铺时写入本节点并通过 Redis 发布/订阅通知其他节点，
+ * 查询时可在访问 Redis 和数据库之前直接拒绝一定不存在的id。
+ * 加载完成之前一律放行，保证不会误拒真实存在的商铺。
+ * <p>
+ * 发布/订阅不保证送达，节点错过通知后新商铺会被一直误拒。因此大于上次加载时最大id的商铺id一律放行，
+ * 由后续的缓存和数据库查询判断是否存在；并每隔 rebuild-interval-millis 从tb_shop重建一次，
+ * 重建写入新的位数组，完成后整体替换，期间收到的新增同时写入新旧两个位数组。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class ShopBloomFilter implements MessageListener {
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Value("${hmdp.bloom.shop.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${hmdp.bloom.shop.fpp:0.01}")
+    private double fpp;
+
+    private volatile AtomicLongArray bits;
+    private long numBits;
+    private int numHashFunctions;
+
+    /**
+     * 正在重建的位数组，不在重建时为null
+     */
+    private volatile AtomicLongArray building;
+
+    /**
+     * 上次加载时的最大商铺id，更大的id一律放行
+     */
+    private volatile long maxLoadedId;
+
+    private volatile boolean ready;
+
+    private final LongAdder insertions = new LongAdder();
+    private final LongAdder rejectCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        numBits = optimalNumOfBits(expectedInsertions, fpp);
+        numHashFunctions = optimalNumOfHashFunctions(expectedInsertions, numBits);
+        bits = new AtomicLongArray((int) ((numBits + 63) / 64));
+        // 先订阅再加载，保证加载期间其他节点新增的商铺不会丢失
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SHOP_BLOOM_ADD_CHANNEL));
+        rebuild();
+    }
+
+    /**
+     * 从tb_shop重建，失败时保留原来的位数组；首次加载失败时过滤器不拦截任何请求
+     */
+    @Scheduled(fixedDelayString = "${hmdp.bloom.shop.rebuild-interval-millis:600000}",
+            initialDelayString = "${hmdp.bloom.shop.rebuild-interval-millis:600000}")
+    public synchronized void rebuild() {
+        AtomicLongArray fresh = new AtomicLongArray(bits.length());
+        building = fresh;
+        try {
+            long[] loaded = loadAll(fresh);
+            // 先替换位数组再提高放行边界，读到新位数组和旧边界时只会多放行
+            bits = fresh;
+            maxLoadedId = loaded[1];
+            insertions.reset();
+            insertions.add(loaded[0]);
+            ready = true;
+            log.info("商铺布隆过滤器加载完成,共{}个id,最大id{},位数组{}位,哈希函数{}个",
+                    loaded[0], loaded[1], numBits, numHashFunctions);
+        } catch (Exception e) {
+            log.error(ready ? "商铺布隆过滤器重建失败,继续使用原来的位数组"
+                    : "商铺布隆过滤器加载失败,过滤器将不会拦截任何请求", e);
+        } finally {
+            building = null;
+        }
+    }
+
+    /**
+     * 按主键顺序分页加载全部商铺id，只查询id列
+     *
+     * @return 加载的id数和最大id
+     */
+    private long[] loadAll(AtomicLongArray target) {
+        long lastId = 0;
+        long loaded = 0;
+        while (true) {
+            List<Object> ids = shopMapper.selectObjs(new QueryWrapper<Shop>()
+                    .select("id").gt("id", lastId).orderByAsc("id").last("limit " + LOAD_BATCH_SIZE));
+            for (Object id : ids) {
+                lastId = ((Number) id).longValue();
+                put(target, lastId);
+            }
+            loaded += ids.size();
+            if (ids.size() < LOAD_BATCH_SIZE) {
+                return new long[]{loaded, lastId};
+            }
+        }
+    }
+
+    /**
+     * 判断商铺id是否可能存在
+     *
+     * @param id 商铺id
+     * @return false表示一定不存在，true表示可能存在
+     */
+    public boolean mightContain(Long id) {
+        if (!ready || id == null || id > maxLoadedId) {
+            return true;
+        }
+        AtomicLongArray current = bits;
+        long hash1 = mix64(id);
+        long hash2 = mix64(hash1 ^ id);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            if ((current.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                rejectCount.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 写入本节点并通知其他节点
+     */
+    public void add(Long id) {
+        put(id);
+        stringRedisTemplate.convertAndSend(RedisConstants.SHOP_BLOOM_ADD_CHANNEL, id.toString());
+    }
+
+    /**
+     * 写入当前位数组，正在重建时同时写入新的位数组。
+     * 先读取重建中的位数组：读到null时重建还没开始，重建加载时能查到这个已提交的商铺
+     */
+    private void put(long id) {
+        AtomicLongArray fresh = building;
+        if (fresh != null) {
+            put(fresh, id);
+        }
+        if (put(bits, id)) {
+            insertions.increment();
+        }
+    }
+
+    /**
+     * @return 是否有位从0变为1
+     */
+    private boolean put(AtomicLongArray target, long id) {
+        long hash1 = mix64(id);
+        long hash2 = mix64(hash1 ^ id);
+        boolean changed = false;
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            changed |= setBit(target, index);
+        }
+        return changed;
+    }
+
+    private static boolean setBit(AtomicLongArray target, long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = target.get(word);
+            if ((old & mask) != 0) {
+                return false;
+            }
+        } while (!target.compareAndSet(word, old, old | mask));
+        return true;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            put(Long.parseLong(body));
+        } catch (NumberFormatException e) {
+            log.warn("无法解析的布隆过滤器消息:{}", body);
+        }
+    }
+
+    /**
+     * 过滤器的容量、内存占用与误判率
+     */
+    public Map<String, Object> stats() {
+        AtomicLongArray current = bits;
+        long bitCount = 0;
+        for (int i = 0; i < current.length(); i++) {
+            bitCount += Long.bitCount(current.get(i));
+        }
+        long n = insertions.sum();
+        Map<String, Object> stats = new HashMap<>(16);
+        stats.put("ready", ready);
+        stats.put("maxLoadedId", maxLoadedId);
+        stats.put("expectedInsertions", expectedInsertions);
+        stats.put("configuredFpp", fpp);
+        stats.put("insertions", n);
+        stats.put("numBits", numBits);
+        stats.put("numHashFunctions", numHashFunctions);
+        stats.put("memoryBytes", current.length() * 8L);
+        stats.put("bitsSet", bitCount);
+        // 根据当前置位比例计算的实际误判率
+        stats.put("currentFpp", Math.pow((double) bitCount / numBits, numHashFunctions));
+        // 根据插入数量估算的理论误判率
+        stats.put("estimatedFpp", Math.pow(1 - Math.exp(-(double) numHashFunctions * n / numBits), numHashFunctions));
+        stats.put("rejectCount", rejectCount.sum());
+        return stats;
+    }
+
+    private static long optimalNumOfBits(long n, double p) {
+        return Math.max(64L, (long) (-n * Math.log(p) / (Math.log(2) * Math.log(2))));
+    }
+
+    private static int optimalNumOfHashFunctions(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    /**
+     * MurmurHash3 的 fmix64 混淆函数，保证连续的自增id也能均匀散列
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,207 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商铺缓存 {@link RedisConstants#CACHE_SHOP_KEY} 的读写，负责哈希格式、过期时间和提前刷新判断。
+ * 哈希中除商铺字段外还保存两个元数据字段：
+ * expireTime 为本条缓存的过期时间（逻辑过期模式下即逻辑过期时间，TTL模式下与Redis的TTL一致），
+ * delta 为上一次重建的耗时，用于 XFetch 概率提前刷新。
+ * <p>
+ * 哈希还带有 version 字段，取自tb_shop的version列，每次修改在同一条UPDATE中加1。回填通过 Lua 脚本比较版本后写入，
+ * 已缓存的版本更新时拒绝写入，因此读到旧数据的慢请求无法覆盖新数据，读路径不需要加锁。
+ * 版本相同即数据相同，相同版本之间互相覆盖不会写入旧数据。
+ * 商铺修改后缓存被替换为只有 version 字段的墓碑，见 {@code cache_tombstone.lua}。
+ *
+ * @author Hikarukimi
+ */
+@Component
+public class ShopCacheClient {
+
+    private static final String EXPIRE_TIME_FIELD = "expireTime";
+    private static final String DELTA_FIELD = "delta";
+
+    private static final DefaultRedisScript<Long> CAS_SET_SCRIPT;
+
+    static {
+        CAS_SET_SCRIPT = new DefaultRedisScript<>();
+        CAS_SET_SCRIPT.setLocation(new ClassPathResource("cache_cas_set.lua"));
+        CAS_SET_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 是否使用逻辑过期方式缓存商铺，开启后缓存不设置TTL，过期后先返回旧值再异步重建
+     */
+    @Value("${hmdp.cache.shop.logical-expire:false}")
+    private boolean logicalExpire;
+
+    @Value("${hmdp.cache.shop.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    @Value("${hmdp.cache.shop.xfetch-beta:1.0}")
+    private double xfetchBeta;
+
+    public boolean isLogicalExpire() {
+        return logicalExpire;
+    }
+
+    /**
+     * @return 缓存数据，data为null表示未命中
+     */
+    public RedisData get(Long id) {
+        return decode(stringRedisTemplate.opsForHash().entries(key(id)));
+    }
+
+    /**
+     * 通过一次管道读取多个商铺缓存
+     *
+     * @return 与ids顺序一致的缓存数据，data为null表示未命中
+     */
+    public List<RedisData> multiGet(List<Long> ids) {
+        List<Object> entriesList = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : ids) {
+                connection.hGetAll(toBytes(key(id)));
+            }
+            return null;
+        });
+        List<RedisData> result = new ArrayList<>(ids.size());
+        for (Object entries : entriesList) {
+            result.add(decode(entries == null ? new HashMap<>(0) : (Map<?, ?>) entries));
+        }
+        return result;
+    }
+
+    /**
+     * 读取缓存当前的过期时间，用于重建前确认缓存是否已被他人刷新
+     */
+    public LocalDateTime getExpireTime(Long id) {
+        return parseTime(stringRedisTemplate.opsForHash().get(key(id), EXPIRE_TIME_FIELD));
+    }
+
+    /**
+     * 是否需要刷新：逻辑过期模式下已过期，或按 XFetch 算法命中提前刷新
+     */
+    public boolean needsRefresh(RedisData redisData) {
+        LocalDateTime expireTime = redisData.getExpireTime();
+        if (expireTime == null) {
+            return false;
+        }
+        if (logicalExpire && !expireTime.isAfter(LocalDateTime.now())) {
+            return true;
+        }
+        return CacheTtl.shouldRefreshEarly(expireTime, redisData.getDelta(), xfetchBeta);
+    }
+
+    /**
+     * 按版本写入单个商铺缓存
+     *
+     * @param shop        商铺
+     * @param deltaMillis 本次从数据库加载的耗时
+     * @return 缓存中已有更新的版本时返回false
+     */
+    public boolean set(Shop shop, long deltaMillis) {
+        List<String> args = toScriptArgs(shop, deltaMillis);
+        Long result = stringRedisTemplate.execute(CAS_SET_SCRIPT,
+                Collections.singletonList(key(shop.getId())), args.toArray());
+        return result != null && result == 1L;
+    }
+
+    /**
+     * 通过一次管道按版本写入多个商铺缓存，每个条目的TTL单独抖动
+     *
+     * @param shops       商铺
+     * @param deltaMillis 从数据库批量加载这些商铺的耗时，一次查询即可重建，作为每个商铺的重建耗时
+     */
+    public void multiSet(Collection<Shop> shops, long deltaMillis) {
+        if (shops.isEmpty()) {
+            return;
+        }
+        byte[] script = toBytes(CAS_SET_SCRIPT.getScriptAsString());
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Shop shop : shops) {
+                List<String> args = toScriptArgs(shop, deltaMillis);
+                byte[][] keysAndArgs = new byte[args.size() + 1][];
+                keysAndArgs[0] = toBytes(key(shop.getId()));
+                for (int i = 0; i < args.size(); i++) {
+                    keysAndArgs[i + 1] = toBytes(args.get(i));
+                }
+                connection.eval(script, ReturnType.INTEGER, 1, keysAndArgs);
+            }
+            return null;
+        });
+    }
+
+    public void delete(Long id) {
+        stringRedisTemplate.delete(key(id));
+    }
+
+    /**
+     * 商铺的缓存版本，即version列，未修改过的商铺为0
+     */
+    public static long versionOf(Shop shop) {
+        return shop.getVersion() == null ? 0L : shop.getVersion();
+    }
+
+    /**
+     * 回填脚本的参数：版本号、TTL秒数（逻辑过期模式下为0），随后是字段和值
+     */
+    private List<String> toScriptArgs(Shop shop, long deltaMillis) {
+        long ttlSeconds = CacheTtl.jitter(TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_SHOP_TTL), ttlJitter);
+        Map<String, String> hash = RedisHashCodec.fromShop(shop);
+        hash.put(EXPIRE_TIME_FIELD, LocalDateTime.now().plusSeconds(ttlSeconds).toString());
+        hash.put(DELTA_FIELD, String.valueOf(deltaMillis));
+        List<String> args = new ArrayList<>(hash.size() * 2 + 2);
+        args.add(String.valueOf(versionOf(shop)));
+        args.add(String.valueOf(logicalExpire ? 0L : ttlSeconds));
+        hash.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        return args;
+    }
+
+    private static RedisData decode(Map<?, ?> entries) {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(parseTime(entries.get(EXPIRE_TIME_FIELD)));
+        Object delta = entries.get(DELTA_FIELD);
+        if (delta != null && StrUtil.isNotBlank(delta.toString())) {
+            redisData.setDelta(Long.parseLong(delta.toString()));
+        }
+        redisData.setData(RedisHashCodec.toShop(entries));
+        return redisData;
+    }
+
+    private static LocalDateTime parseTime(Object value) {
+        return value == null || StrUtil.isBlank(value.toString()) ? null : LocalDateTime.parse(value.toString());
+    }
+
+    private static String key(Long id) {
+        return RedisConstants.CACHE_SHOP_KEY + id;
+    }
+
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
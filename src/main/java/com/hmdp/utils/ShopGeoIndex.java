@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按商铺类型维护的 Redis GEO 集合，key 为 {@link RedisConstants#SHOP_GEO_KEY} + typeId，成员为商铺id。
+ * 启动时分批把 tb_shop 的坐标写入 GEO 集合，新增、修改商铺时同步更新。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements ApplicationRunner {
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.geo.shop.load-on-startup:true}")
+    private boolean loadOnStartup;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!loadOnStartup) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            long loaded = loadAll();
+            log.info("商铺GEO集合加载完成,共{}个商铺,耗时{}ms", loaded, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("商铺GEO集合加载失败", e);
+        }
+    }
+
+    /**
+     * 按主键顺序分批读取商铺坐标，每批通过一次管道写入对应类型的 GEO 集合
+     *
+     * @return 写入的商铺数量
+     */
+    public long loadAll() {
+        long lastId = 0;
+        long loaded = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "x", "y").gt("id", lastId)
+                    .orderByAsc("id").last("limit " + LOAD_BATCH_SIZE));
+            if (!shops.isEmpty()) {
+                addAll(shops);
+                lastId = shops.get(shops.size() - 1).getId();
+                loaded += shops.size();
+            }
+            if (shops.size() < LOAD_BATCH_SIZE) {
+                return loaded;
+            }
+        }
+    }
+
+    private void addAll(List<Shop> shops) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Shop shop : shops) {
+                if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                    continue;
+                }
+                connection.geoAdd(toBytes(RedisConstants.SHOP_GEO_KEY + shop.getTypeId()),
+                        new Point(shop.getX(), shop.getY()), toBytes(shop.getId().toString()));
+            }
+            return null;
+        });
+    }
+
+    public void add(Long typeId, Long shopId, Double x, Double y) {
+        if (typeId == null || x == null || y == null) {
+            return;
+        }
+        stringRedisTemplate.opsForGeo().add(RedisConstants.SHOP_GEO_KEY + typeId, new Point(x, y), shopId.toString());
+    }
+
+    public void remove(Long typeId, Long shopId) {
+        if (typeId == null) {
+            return;
+        }
+        stringRedisTemplate.opsForGeo().remove(RedisConstants.SHOP_GEO_KEY + typeId, shopId.toString());
+    }
+
+    /**
+     * 查询指定类型下某坐标附近的商铺，按距离升序分页
+     *
+     * @param typeId 商铺类型
+     * @param x      经度
+     * @param y      纬度
+     * @param radius 搜索半径，单位米
+     * @param from   跳过的条数
+     * @param size   每页条数
+     * @return 商铺id到距离（米）的有序映射
+     */
+    public Map<Long, Double> search(Long typeId, double x, double y, double radius, int from, int size) {
+        // GEORADIUS 不支持偏移量，只能取前 from + size 条后自行截取
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                RedisConstants.SHOP_GEO_KEY + typeId,
+                new Circle(new Point(x, y), new Distance(radius, RedisGeoCommands.DistanceUnit.METERS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs()
+                        .includeDistance().sortAscending().limit(from + size));
+        if (results == null) {
+            return Collections.emptyMap();
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content = results.getContent();
+        if (content.size() <= from) {
+            return Collections.emptyMap();
+        }
+        Map<Long, Double> distances = new LinkedHashMap<>(size * 2);
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : content.subList(from, content.size())) {
+            distances.put(Long.valueOf(result.getContent().getName()), result.getDistance().getValue());
+        }
+        return distances;
+    }
+
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 商铺信息的进程内一级缓存，位于 Redis 中 {@link RedisConstants#CACHE_SHOP_KEY} 哈希之前。
+ * 容量和存活时间均有上限，按写入时间过期，超出容量时按LRU淘汰。
+ * 商铺更新时通过 Redis 发布/订阅广播失效消息，所有节点收到后删除本地条目。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class ShopLocalCache implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Value("${hmdp.cache.shop.local.capacity:1000}")
+    private int capacity;
+
+    @Value("${hmdp.cache.shop.local.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    private LRUCache<Long, Shop> cache;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder invalidateCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        cache = CacheUtil.newLRUCache(capacity, TimeUnit.SECONDS.toMillis(ttlSeconds));
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.CACHE_SHOP_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 查询本地缓存，读取不会刷新条目的存活时间
+     *
+     * @param id 商铺id
+     * @return 商铺信息，不存在或已过期时返回null
+     */
+    public Shop get(Long id) {
+        Shop shop = cache.get(id, false);
+        if (shop == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return shop;
+    }
+
+    public void put(Shop shop) {
+        if (shop == null || shop.getId() == null) {
+            return;
+        }
+        cache.put(shop.getId(), shop);
+    }
+
+    /**
+     * 仅删除本节点的缓存条目
+     */
+    public void invalidateLocal(Long id) {
+        cache.remove(id);
+        invalidateCount.increment();
+    }
+
+    /**
+     * 删除本节点条目并通知其他节点删除
+     */
+    public void broadcastInvalidate(Long id) {
+        invalidateLocal(id);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_SHOP_INVALIDATE_CHANNEL, id.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            invalidateLocal(Long.valueOf(body));
+        } catch (NumberFormatException e) {
+            log.warn("无法解析的商铺缓存失效消息:{}", body);
+        }
+    }
+
+    /**
+     * 命中率等统计信息，用于评估缓存容量
+     */
+    public Map<String, Object> stats() {
+        long hits = hitCount.sum();
+        long misses = missCount.sum();
+        Map<String, Object> stats = new HashMap<>(8);
+        stats.put("capacity", capacity);
+        stats.put("ttlSeconds", ttlSeconds);
+        stats.put("size", cache.size());
+        stats.put("hitCount", hits);
+        stats.put("missCount", misses);
+        stats.put("invalidateCount", invalidateCount.sum());
+        stats.put("hitRate", hits + misses == 0 ? 0D : (double) hits / (hits + misses));
+        return stats;
+    }
+}
@@ -0,0 +1,238 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 商铺名称的进程内倒排索引，以单字和相邻两字（bigram）为词项，适合不分词的中文名称。
+ * 启动时从 tb_shop 分批构建，新增、修改商铺时增量维护并通过发布/订阅同步到其他节点。
+ * 查询时取各词项倒排表的交集，再校验名称确实包含关键字，语义与 LIKE '%name%' 一致。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class ShopNameIndex implements ApplicationRunner, MessageListener {
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 词项 -> 包含该词项的商铺id
+     */
+    private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+
+    /**
+     * 商铺id -> 归一化后的名称，用于校验匹配、排序和更新时删除旧词项
+     */
+    private final Map<Long, String> names = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        // 先订阅再构建，构建期间其他节点的修改不会丢失
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SHOP_NAME_INDEX_CHANNEL));
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            long start = System.currentTimeMillis();
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name").gt("id", lastId)
+                        .orderByAsc("id").last("limit " + LOAD_BATCH_SIZE));
+                for (Shop shop : shops) {
+                    put(shop.getId(), shop.getName());
+                    lastId = shop.getId();
+                }
+                if (shops.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+            }
+            ready = true;
+            log.info("商铺名称索引构建完成,共{}个商铺,{}个词项,耗时{}ms",
+                    names.size(), postings.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("商铺名称索引构建失败,名称查询将使用数据库", e);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 更新本节点索引并通知其他节点
+     */
+    public void update(Long id, String name) {
+        if (id == null || name == null) {
+            return;
+        }
+        put(id, name);
+        stringRedisTemplate.convertAndSend(RedisConstants.SHOP_NAME_INDEX_CHANNEL, id + ":" + name);
+    }
+
+    private void put(Long id, String name) {
+        String normalized = normalize(name);
+        String old = names.put(id, normalized);
+        Set<String> grams = grams(normalized);
+        if (old != null) {
+            for (String gram : grams(old)) {
+                if (!grams.contains(gram)) {
+                    Set<Long> ids = postings.get(gram);
+                    if (ids != null) {
+                        ids.remove(id);
+                    }
+                }
+            }
+        }
+        for (String gram : grams) {
+            postings.computeIfAbsent(gram, k -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    /**
+     * 按关键字查询商铺id，匹配位置越靠前、名称越短的排在越前面
+     *
+     * @param keyword 名称关键字
+     * @param from    跳过的条数
+     * @param size    每页条数
+     * @return 排序后的商铺id
+     */
+    public List<Long> search(String keyword, int from, int size) {
+        String normalized = normalize(keyword);
+        List<Long> matched = match(normalized);
+        matched.sort(Comparator.<Long>comparingInt(id -> names.get(id).indexOf(normalized))
+                .thenComparingInt(id -> names.get(id).length())
+                .thenComparing(Comparator.naturalOrder()));
+        if (from >= matched.size()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(matched.subList(from, Math.min(matched.size(), from + size)));
+    }
+
+    /**
+     * 按关键字查询id大于lastId的商铺，按id升序返回，供游标分页使用
+     *
+     * @param keyword 名称关键字
+     * @param lastId  上一页最后一个商铺id，为空时从头开始
+     * @param size    每页条数
+     * @return 按id升序的商铺id
+     */
+    public List<Long> searchAfter(String keyword, Long lastId, int size) {
+        List<Long> matched = match(normalize(keyword));
+        if (lastId != null) {
+            matched.removeIf(id -> id <= lastId);
+        }
+        matched.sort(Comparator.naturalOrder());
+        return new ArrayList<>(matched.subList(0, Math.min(matched.size(), size)));
+    }
+
+    private List<Long> match(String normalized) {
+        if (normalized.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // 从最短的倒排表开始求交集
+        List<Set<Long>> lists = new ArrayList<>();
+        for (String gram : queryGrams(normalized)) {
+            Set<Long> ids = postings.get(gram);
+            if (ids == null || ids.isEmpty()) {
+                return new ArrayList<>();
+            }
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+        List<Long> matched = new ArrayList<>();
+        for (Long id : lists.get(0)) {
+            String name = names.get(id);
+            if (name != null && name.contains(normalized) && containsAll(lists, id)) {
+                matched.add(id);
+            }
+        }
+        return matched;
+    }
+
+    private static boolean containsAll(List<Set<Long>> lists, Long id) {
+        for (int i = 1; i < lists.size(); i++) {
+            if (!lists.get(i).contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 索引同时保存单字和相邻两字，单字用于只输入一个字的查询
+     */
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>(text.length() * 2);
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+            if (i + 1 < text.length()) {
+                grams.add(text.substring(i, i + 2));
+            }
+        }
+        return grams;
+    }
+
+    private static Set<String> queryGrams(String text) {
+        if (text.length() == 1) {
+            return Collections.singleton(text);
+        }
+        Set<String> grams = new HashSet<>(text.length());
+        for (int i = 0; i + 1 < text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    private static String normalize(String text) {
+        return StrUtil.trimToEmpty(text).toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int split = body.indexOf(':');
+        try {
+            put(Long.valueOf(body.substring(0, split)), body.substring(split + 1));
+        } catch (RuntimeException e) {
+            log.warn("无法解析的商铺名称索引消息:{}", body);
+        }
+    }
+}
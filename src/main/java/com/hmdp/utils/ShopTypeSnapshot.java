@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 商铺类型列表的进程内快照。类型数量很少且几乎不变，整个响应体在加载时序列化一次，
+ * 之后每次请求直接返回同一份字节数组，不访问 Redis 和数据库。
+ * 系统没有修改商铺类型的接口，直接修改数据库后需要手动向 {@link RedisConstants#SHOP_TYPE_REFRESH_CHANNEL}
+ * 发布任意消息，所有节点收到后重新从数据库加载，例如 {@code PUBLISH shop:type:refresh 1}。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class ShopTypeSnapshot implements MessageListener {
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SHOP_TYPE_REFRESH_CHANNEL));
+    }
+
+    /**
+     * 当前快照，尚未加载时同步加载一次
+     */
+    public Snapshot get() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            return snapshot != null ? snapshot : refresh();
+        }
+    }
+
+    /**
+     * 从数据库重新加载并替换快照
+     */
+    public synchronized Snapshot refresh() {
+        List<ShopType> types = shopTypeService.query().orderByAsc("sort").list();
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("商铺类型序列化失败", e);
+        }
+        snapshot = new Snapshot(body, "\"" + DigestUtil.md5Hex(body) + "\"", types.size());
+        log.info("商铺类型快照已加载,共{}个类型,ETag:{}", types.size(), snapshot.getEtag());
+        return snapshot;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("商铺类型快照刷新失败,继续使用旧快照", e);
+        }
+    }
+
+    /**
+     * 不可变的快照，body 为完整的 {@link Result} 响应体
+     */
+    public static final class Snapshot {
+        private final byte[] body;
+        private final String etag;
+        private final int size;
+
+        private Snapshot(byte[] body, String etag, int size) {
+            this.body = body;
+            this.etag = etag;
+            this.size = size;
+        }
+
+        /**
+         * 调用方不得修改返回的数组
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * 请求头 If-None-Match 是否包含当前 ETag
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String trimmed = tag.trim();
+                if ("*".equals(trimmed) || etag.equals(trimmed) || ("W/" + etag).equals(trimmed)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 进程内的请求合并工具。同一个key同时只会有一个加载任务在执行，
+ * 其余并发调用共享这次加载的结果，适用于各类旁路缓存的未命中加载。
+ *
+ * @param <K> 键类型
+ * @param <V> 加载结果类型
+ * @author Hikarukimi
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder sharedCount = new LongAdder();
+
+    /**
+     * 执行加载，若该key已有加载任务在执行，则等待并复用其结果
+     *
+     * @param key    键
+     * @param loader 加载逻辑，由第一个到达的线程在当前线程中执行
+     * @return 加载结果，可以为null
+     */
+    public V execute(K key, Supplier<V> loader) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            sharedCount.increment();
+            return join(existing);
+        }
+        loadCount.increment();
+        try {
+            V value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 实际执行加载的次数
+     */
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    /**
+     * 复用其他线程加载结果的次数
+     */
+    public long getSharedCount() {
+        return sharedCount.sum();
+    }
+}
@@ -0,0 +1,268 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.RandomUtil;
+import com.baomidou.mybatisplus.core.incrementer.IdentifierGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单id生成器，取代 MyBatis-Plus 默认按 MAC 地址和进程号推算机器号的 ASSIGN_ID，
+ * 避免容器环境下机器号冲突。id 由 41 位毫秒时间戳、10 位机器号和 12 位序列号组成。
+ * <p>
+ * 机器号从 Redis 租用：启动时随机选择一个空闲的机器号写入租约，之后定时续租；
+ * 续租失败超过租约时间后停止生成 id，租约被他人占用时重新租用。
+ * <p>
+ * 时间戳和序列号保存在同一个 {@link AtomicLong} 中通过 CAS 推进，生成 id 不加锁。
+ * 同一毫秒内序列号用完或时钟回拨时继续在上一个时间戳上递增，序列号溢出进位到下一毫秒，
+ * 保证同一机器号下的 id 单调递增。续租和释放时记录最后使用的时间戳，机器号被重新租用时从该时间戳之后开始。
+ * 只有上一个持有者正常释放时才能保证新节点时钟落后也不生成重复的 id：持有者崩溃时记录的时间戳最多落后一个续租间隔，
+ * 而它在租约失效前（deadlineOf）仍可能生成 id，新节点的时钟若落后于这段时间，仍可能与之重复。
+ * <p>
+ * prefetch-size 大于 0 时每个线程一次预占一段序列号，之后在线程内分配，多线程之间不再竞争同一个 CAS。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class SnowflakeIdGenerator implements IdentifierGenerator {
+
+    /**
+     * 2022-01-01 00:00:00 UTC
+     */
+    private static final long EPOCH = 1640995200000L;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_WORKERS = 1 << WORKER_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        ACQUIRE_SCRIPT = new DefaultRedisScript<>();
+        ACQUIRE_SCRIPT.setLocation(new ClassPathResource("id_worker_acquire.lua"));
+        ACQUIRE_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.id.lease-seconds:60}")
+    private long leaseSeconds;
+
+    @Value("${hmdp.id.prefetch-size:0}")
+    private int prefetchSize;
+
+    /**
+     * 租约持有者标识，区分同一机器号的前后两个持有者
+     */
+    private final String token = IdUtil.fastSimpleUUID();
+
+    /**
+     * 高位为相对 EPOCH 的毫秒时间戳，低 12 位为序列号
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    private volatile Lease lease;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private ScheduledExecutorService renewExecutor;
+
+    @PostConstruct
+    public void init() {
+        acquire();
+        renewExecutor = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("id-worker-renew-").setDaemon(true).build());
+        long interval = Math.max(1L, leaseSeconds / 3);
+        renewExecutor.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (renewExecutor != null) {
+            renewExecutor.shutdown();
+        }
+        Lease current = lease;
+        if (current == null) {
+            return;
+        }
+        try {
+            // 释放前记录最后使用的时间戳，下一个持有者从这里之后开始
+            stringRedisTemplate.execute(RENEW_SCRIPT, current.keys, token, "0", String.valueOf(lastTimestamp()));
+        } catch (Exception e) {
+            log.warn("释放机器号{}失败,等待租约过期", current.workerId, e);
+        }
+    }
+
+    @Override
+    public Long nextId(Object entity) {
+        return nextId();
+    }
+
+    public long nextId() {
+        if (prefetchSize <= 0) {
+            Lease current = validLease();
+            return compose(reserve(1), current.workerId);
+        }
+        Block block = blocks.get();
+        Lease current = validLease();
+        if (block.generation != current.generation || block.next > block.end) {
+            // 预占的序列号属于之前的租约时丢弃
+            block.generation = current.generation;
+            block.next = reserve(prefetchSize);
+            block.end = block.next + prefetchSize - 1;
+        }
+        return compose(block.next++, current.workerId);
+    }
+
+    /**
+     * 预占 count 个连续的时间戳+序列号，时钟前进时从新的毫秒开始，否则接在上一次之后
+     *
+     * @return 第一个
+     */
+    private long reserve(int count) {
+        while (true) {
+            long prev = state.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            long first = now > prev >>> SEQUENCE_BITS ? now << SEQUENCE_BITS : prev + 1;
+            if (state.compareAndSet(prev, first + count - 1)) {
+                return first;
+            }
+        }
+    }
+
+    private static long compose(long timestampAndSequence, int workerId) {
+        return (timestampAndSequence >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                | (long) workerId << SEQUENCE_BITS
+                | timestampAndSequence & SEQUENCE_MASK;
+    }
+
+    private Lease validLease() {
+        Lease current = lease;
+        if (current == null || System.currentTimeMillis() > current.deadline) {
+            throw new IllegalStateException("机器号租约已失效,暂时无法生成id");
+        }
+        return current;
+    }
+
+    /**
+     * 已分配出去的最大毫秒时间戳
+     */
+    private long lastTimestamp() {
+        return (state.get() >>> SEQUENCE_BITS) + EPOCH;
+    }
+
+    /**
+     * 从随机位置开始依次尝试，直到租到一个空闲的机器号
+     */
+    private void acquire() {
+        long ttl = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        int start = RandomUtil.randomInt(MAX_WORKERS);
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            int workerId = (start + i) % MAX_WORKERS;
+            List<String> keys = keysOf(workerId);
+            long begin = System.currentTimeMillis();
+            Long last = stringRedisTemplate.execute(ACQUIRE_SCRIPT, keys, token, String.valueOf(ttl));
+            if (last == null || last < 0) {
+                continue;
+            }
+            // 先推进时间戳再发布新租约，新机器号下不会用到上一个持有者已经用过的时间戳
+            long floor = (Math.max(last + 1, System.currentTimeMillis()) - EPOCH) << SEQUENCE_BITS;
+            state.accumulateAndGet(floor, Math::max);
+            lease = new Lease(workerId, keys, deadlineOf(begin, ttl), generation.incrementAndGet());
+            log.info("租用机器号{},上一个持有者最后使用的时间戳:{}", workerId, last);
+            return;
+        }
+        throw new IllegalStateException("没有空闲的机器号");
+    }
+
+    private void renew() {
+        Lease current = lease;
+        long ttl = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        try {
+            long begin = System.currentTimeMillis();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, current.keys, token,
+                    String.valueOf(ttl), String.valueOf(lastTimestamp()));
+            if (renewed != null && renewed == 1L) {
+                lease = new Lease(current.workerId, current.keys, deadlineOf(begin, ttl), current.generation);
+                return;
+            }
+            log.warn("机器号{}的租约已被占用,重新租用", current.workerId);
+            acquire();
+        } catch (Exception e) {
+            log.error("机器号{}续租失败", current.workerId, e);
+        }
+    }
+
+    /**
+     * 提前十分之一的租约时间失效，留出节点之间的时钟误差
+     */
+    private static long deadlineOf(long begin, long ttl) {
+        return begin + ttl - ttl / 10;
+    }
+
+    private static List<String> keysOf(int workerId) {
+        String key = RedisConstants.ID_WORKER_KEY + "{" + workerId + "}";
+        return Arrays.asList(key, key + ":last");
+    }
+
+    public Map<String, Object> stats() {
+        Lease current = lease;
+        Map<String, Object> stats = new HashMap<>(4);
+        stats.put("workerId", current == null ? null : current.workerId);
+        stats.put("leaseRemainingMillis", current == null ? 0 : current.deadline - System.currentTimeMillis());
+        stats.put("lastTimestamp", lastTimestamp());
+        stats.put("prefetchSize", prefetchSize);
+        return stats;
+    }
+
+    private static final class Lease {
+        private final int workerId;
+        private final List<String> keys;
+        private final long deadline;
+        /**
+         * 每次租用加一，续租不变
+         */
+        private final long generation;
+
+        private Lease(int workerId, List<String> keys, long deadline, long generation) {
+            this.workerId = workerId;
+            this.keys = keys;
+            this.deadline = deadline;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * 线程内预占的一段序列号，只由所属线程访问
+     */
+    private static final class Block {
+        private long generation;
+        private long next;
+        private long end;
+    }
+}
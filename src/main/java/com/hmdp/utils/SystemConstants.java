@@ -5,4 +5,8 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int MAX_BATCH_SIZE = 100;
+    public static final double DEFAULT_GEO_RADIUS = 5000D;
+    public static final String RESPONSE_CACHE_BLOG_HOT = "blog:hot";
+    public static final String RESPONSE_CACHE_VOUCHER_LIST = "voucher:list";
 }
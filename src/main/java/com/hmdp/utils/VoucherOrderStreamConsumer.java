@@ -0,0 +1,498 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀订单消息流的消费者。
+ * 秒杀脚本扣减库存的同时把订单写入秒杀券分段自己的消息流 {@link SecKillKeys#streamKey}，
+ * 即使 JVM 在写入数据库前退出订单也不会丢失。消息流登记在有序集合 {@link RedisConstants#SEC_KILL_ORDER_STREAM_INDEX_KEY} 中，
+ * 分数是秒杀券的结束时间；每隔 refresh-interval-seconds 重新读取一次，为新出现的消息流创建消费者组。
+ * <p>
+ * 每个节点启动 consumers 个消费者线程，消息流按哈希分给各线程，线程依次非阻塞地 XREADGROUP 读取自己负责的消息流，
+ * 按批通过 {@link VoucherOrderWriter#write} 写入数据库，事务提交后再 XACK；写入失败的消息留在待处理列表中等待重新投递。
+ * 一轮都没有读到消息时休眠，休眠时间从 10ms 起翻倍，最长 max-idle-millis。
+ * 集群中一条 XREADGROUP BLOCK 只能等待同一槽位的消息流，而各秒杀券的消息流分布在不同槽位，
+ * 因此不阻塞读取，直接使用共用的连接工厂，单机、哨兵和集群部署都适用。
+ * <p>
+ * 消费者名称由 consumer-name（默认主机名）和序号组成，重启后先重放自己待处理列表中的消息；
+ * 同时定时把其他消费者闲置超过 reclaim-idle-seconds 的消息通过 XPENDING + XCLAIM 认领过来处理，
+ * 当前使用的 Spring Data Redis 2.3 不支持 XAUTOCLAIM，两条命令组合实现相同效果。
+ * 投递次数超过 max-deliveries 的消息先按订单id查询数据库，已写入的直接确认；
+ * 未写入的复制到死信消息流 {@link RedisConstants#SEC_KILL_ORDER_DEAD_LETTER_KEY}，
+ * 再通过 {@link SecKillCompensator} 归还库存和下单资格，最后确认，不再重试。
+ * <p>
+ * 秒杀券结束超过 retire-after-seconds、消息全部投递并确认后，消息流从登记中移除并删除。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class VoucherOrderStreamConsumer implements ApplicationRunner {
+
+    private static final long MIN_IDLE_MILLIS = 10L;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private VoucherOrderWriter voucherOrderWriter;
+
+    @Resource
+    private SecKillCompensator compensator;
+
+    @Value("${hmdp.seckill.mode:db}")
+    private String mode;
+
+    /**
+     * 消费者名称前缀，为空时使用主机名，同一台机器上运行多个实例时需要分别指定
+     */
+    @Value("${hmdp.seckill.stream.consumer-name:}")
+    private String consumerName;
+
+    @Value("${hmdp.seckill.stream.group:voucher-order-group}")
+    private String group;
+
+    @Value("${hmdp.seckill.stream.consumers:1}")
+    private int consumers;
+
+    @Value("${hmdp.seckill.stream.batch-size:100}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.stream.max-idle-millis:500}")
+    private long maxIdleMillis;
+
+    @Value("${hmdp.seckill.stream.refresh-interval-seconds:5}")
+    private long refreshIntervalSeconds;
+
+    @Value("${hmdp.seckill.stream.reclaim-idle-seconds:60}")
+    private long reclaimIdleSeconds;
+
+    @Value("${hmdp.seckill.stream.reclaim-interval-seconds:30}")
+    private long reclaimIntervalSeconds;
+
+    @Value("${hmdp.seckill.stream.max-deliveries:10}")
+    private int maxDeliveries;
+
+    @Value("${hmdp.seckill.stream.retire-after-seconds:3600}")
+    private long retireAfterSeconds;
+
+    /**
+     * 当前登记的消息流，由刷新任务整体替换
+     */
+    private volatile List<String> streams = Collections.emptyList();
+
+    /**
+     * 已创建消费者组的消息流，只在刷新任务中访问
+     */
+    private final Set<String> grouped = new HashSet<>();
+
+    private ExecutorService consumerExecutor;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile boolean running = true;
+
+    private final LongAdder ackCount = new LongAdder();
+    private final LongAdder reclaimCount = new LongAdder();
+    private final LongAdder deadLetterCount = new LongAdder();
+    private final LongAdder retiredCount = new LongAdder();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!"stream".equals(mode)) {
+            return;
+        }
+        refresh();
+        String prefix = consumerPrefix();
+        consumerExecutor = Executors.newFixedThreadPool(consumers,
+                ThreadFactoryBuilder.create().setNamePrefix("voucher-order-stream-").setDaemon(true).build());
+        for (int i = 0; i < consumers; i++) {
+            int index = i;
+            consumerExecutor.execute(() -> consume(index, prefix + "-" + index));
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                ThreadFactoryBuilder.create().setNamePrefix("voucher-order-reclaim-").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::refresh,
+                refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(() -> {
+            streams.forEach(stream -> reclaim(stream, prefix + "-reclaim"));
+            retireEnded();
+        }, 0, reclaimIntervalSeconds, TimeUnit.SECONDS);
+        log.info("秒杀订单消息流消费者已启动,消费者组:{},消息流数:{},消费者数:{}", group, streams.size(), consumers);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        if (consumerExecutor != null) {
+            consumerExecutor.shutdown();
+            // 等待正在处理的批次完成，未确认的消息由重启后的重放或其他节点认领
+            consumerExecutor.awaitTermination(maxIdleMillis + 10_000L, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 重新读取登记的消息流，为新出现的消息流创建消费者组
+     */
+    private void refresh() {
+        try {
+            Set<String> registered = stringRedisTemplate.opsForZSet()
+                    .range(RedisConstants.SEC_KILL_ORDER_STREAM_INDEX_KEY, 0, -1);
+            List<String> current = new ArrayList<>(registered == null ? 0 : registered.size());
+            if (registered != null) {
+                for (String stream : registered) {
+                    if (!grouped.contains(stream)) {
+                        try {
+                            createGroup(stream);
+                        } catch (Exception e) {
+                            log.error("创建秒杀订单消费者组失败,消息流:{}", stream, e);
+                            continue;
+                        }
+                        grouped.add(stream);
+                    }
+                    current.add(stream);
+                }
+            }
+            grouped.retainAll(current);
+            streams = Collections.unmodifiableList(current);
+        } catch (Exception e) {
+            log.error("刷新秒杀订单消息流失败", e);
+        }
+    }
+
+    /**
+     * 创建消费者组，消息流不存在时一并创建，组已存在时忽略
+     */
+    private void createGroup(String stream) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    toBytes("CREATE"), toBytes(stream), toBytes(group),
+                    toBytes("0"), toBytes("MKSTREAM")));
+        } catch (RedisSystemException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 依次读取分给本线程的消息流，第一次读取某个消息流时先重放本消费者上次退出前未确认的消息
+     */
+    private void consume(int index, String name) {
+        Consumer consumer = Consumer.from(group, name);
+        Set<String> replayed = new HashSet<>();
+        long idleMillis = MIN_IDLE_MILLIS;
+        while (running) {
+            boolean read = false;
+            for (String stream : streams) {
+                if (!running) {
+                    break;
+                }
+                if (Math.floorMod(stream.hashCode(), consumers) != index) {
+                    continue;
+                }
+                try {
+                    if (!replayed.contains(stream)) {
+                        replay(stream, consumer);
+                        replayed.add(stream);
+                    }
+                    read |= poll(stream, consumer, ReadOffset.lastConsumed()) != null;
+                } catch (Exception e) {
+                    if (isNoGroup(e)) {
+                        // 消息流已被其他节点删除，等待下次刷新移除
+                        continue;
+                    }
+                    log.error("处理秒杀订单消息失败,消息流:{},消费者:{}", stream, name, e);
+                    sleepQuietly(1000L);
+                }
+            }
+            if (read) {
+                idleMillis = MIN_IDLE_MILLIS;
+            } else {
+                sleepQuietly(idleMillis);
+                idleMillis = Math.min(idleMillis * 2, maxIdleMillis);
+            }
+        }
+    }
+
+    private void replay(String stream, Consumer consumer) {
+        ReadOffset offset = ReadOffset.from("0");
+        while (running) {
+            RecordId last = poll(stream, consumer, offset);
+            if (last == null) {
+                return;
+            }
+            offset = ReadOffset.from(last);
+        }
+    }
+
+    /**
+     * 读取并处理一批消息
+     *
+     * @return 最后一条消息的id，没有读到消息时返回null
+     */
+    private RecordId poll(String stream, Consumer consumer, ReadOffset offset) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .read(consumer, StreamReadOptions.empty().count(batchSize), StreamOffset.create(stream, offset));
+        if (records == null || records.isEmpty()) {
+            return null;
+        }
+        List<RecordId> ids = new ArrayList<>(records.size());
+        List<Map<String, String>> values = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            ids.add(record.getId());
+            Map<String, String> value = new HashMap<>(8);
+            record.getValue().forEach((k, v) -> value.put(k.toString(), v.toString()));
+            values.add(value);
+        }
+        handle(stream, ids, values);
+        return ids.get(ids.size() - 1);
+    }
+
+    /**
+     * 移除结束已久、消息全部投递并确认的消息流：先从登记中移除，各节点刷新后不再读取，再删除消息流
+     */
+    private void retireEnded() {
+        try {
+            long before = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(retireAfterSeconds);
+            Set<String> ended = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(RedisConstants.SEC_KILL_ORDER_STREAM_INDEX_KEY, 0, before);
+            if (ended == null) {
+                return;
+            }
+            for (String stream : ended) {
+                if (!drained(stream)) {
+                    continue;
+                }
+                stringRedisTemplate.opsForZSet().remove(RedisConstants.SEC_KILL_ORDER_STREAM_INDEX_KEY, stream);
+                stringRedisTemplate.delete(stream);
+                retiredCount.increment();
+                log.info("秒杀订单消息流已消费完,删除:{}", stream);
+            }
+        } catch (Exception e) {
+            log.error("清理秒杀订单消息流失败", e);
+        }
+    }
+
+    private boolean drained(String stream) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(stream))) {
+            return true;
+        }
+        StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(stream);
+        // 消费者组还未创建时消息一条都没有读过
+        return stringRedisTemplate.opsForStream().groups(stream).stream()
+                .filter(xInfoGroup -> group.equals(xInfoGroup.groupName()))
+                .anyMatch(xInfoGroup -> xInfoGroup.pendingCount() == 0
+                        && info.lastGeneratedId().equals(xInfoGroup.lastDeliveredId()));
+    }
+
+    /**
+     * 认领闲置过久的待处理消息，投递次数过多的消息转入死信
+     */
+    private void reclaim(String stream, String name) {
+        try {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(stream, group, Range.unbounded(), batchSize);
+            Duration minIdle = Duration.ofSeconds(reclaimIdleSeconds);
+            List<RecordId> claimIds = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    log.error("秒杀订单消息投递{}次仍未处理成功,转入死信:{}", message.getTotalDeliveryCount(), message.getId());
+                    deadLetter(stream, message.getId());
+                    continue;
+                }
+                claimIds.add(message.getId());
+            }
+            if (claimIds.isEmpty()) {
+                return;
+            }
+            List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                    connection.xClaim(toBytes(stream), group, name,
+                            RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(claimIds)));
+            if (claimed == null || claimed.isEmpty()) {
+                return;
+            }
+            List<RecordId> ids = new ArrayList<>(claimed.size());
+            List<Map<String, String>> values = new ArrayList<>(claimed.size());
+            for (ByteRecord record : claimed) {
+                ids.add(record.getId());
+                Map<String, String> value = new HashMap<>(8);
+                record.getValue().forEach((k, v) -> value.put(
+                        new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+                values.add(value);
+            }
+            reclaimCount.add(ids.size());
+            log.warn("认领{}条闲置的秒杀订单消息", ids.size());
+            handle(stream, ids, values);
+        } catch (Exception e) {
+            log.error("认领秒杀订单消息失败,消息流:{}", stream, e);
+        }
+    }
+
+    /**
+     * 写入数据库后确认，无法解析的消息转入死信后确认
+     */
+    private void handle(String stream, List<RecordId> ids, List<Map<String, String>> values) {
+        List<VoucherOrder> orders = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            VoucherOrder order = toVoucherOrder(values.get(i));
+            if (order == null) {
+                log.error("无法解析的秒杀订单消息,id:{},内容:{}", ids.get(i), values.get(i));
+                copyToDeadLetter(stream, ids.get(i), values.get(i), "unparseable");
+                continue;
+            }
+            orders.add(order);
+        }
+        if (!orders.isEmpty()) {
+            voucherOrderWriter.write(orders);
+        }
+        acknowledge(stream, ids);
+    }
+
+    /**
+     * 先按订单id查询数据库，订单已写入时直接确认；否则把消息复制到死信消息流，撤销订单在 Redis 中的扣减后确认。
+     * 任何一步失败都不确认，下次认领时重试
+     */
+    private void deadLetter(String stream, RecordId id) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(stream, Range.closed(id.getValue(), id.getValue()));
+        if (records != null && !records.isEmpty()) {
+            Map<String, String> value = new HashMap<>(8);
+            records.get(0).getValue().forEach((k, v) -> value.put(k.toString(), v.toString()));
+            VoucherOrder order = toVoucherOrder(value);
+            if (order == null) {
+                copyToDeadLetter(stream, id, value, "unparseable");
+            } else if (!voucherOrderWriter.unwritten(Collections.singletonList(order)).isEmpty()) {
+                copyToDeadLetter(stream, id, value, "max-deliveries");
+                compensator.compensate(order);
+            }
+        } else {
+            // 消息已被 MAXLEN 裁剪，只剩 id
+            log.error("死信消息内容已不存在,消息流:{},id:{}", stream, id);
+        }
+        acknowledge(stream, Collections.singletonList(id));
+    }
+
+    private void copyToDeadLetter(String stream, RecordId id, Map<String, String> value, String reason) {
+        Map<String, String> deadLetter = new HashMap<>(value);
+        deadLetter.put("sourceStream", stream);
+        deadLetter.put("sourceId", id.getValue());
+        deadLetter.put("reason", reason);
+        stringRedisTemplate.opsForStream().add(RedisConstants.SEC_KILL_ORDER_DEAD_LETTER_KEY, deadLetter);
+        deadLetterCount.increment();
+    }
+
+    private void acknowledge(String stream, List<RecordId> ids) {
+        stringRedisTemplate.opsForStream().acknowledge(stream, group,
+                ids.toArray(new RecordId[0]));
+        ackCount.add(ids.size());
+    }
+
+    private static VoucherOrder toVoucherOrder(Map<String, String> value) {
+        String id = value.get("id");
+        String userId = value.get("userId");
+        String voucherId = value.get("voucherId");
+        String createTime = value.get("createTime");
+        if (StrUtil.hasBlank(id, userId, voucherId, createTime)) {
+            return null;
+        }
+        VoucherOrder order = new VoucherOrder();
+        order.setId(Long.valueOf(id));
+        order.setUserId(Long.valueOf(userId));
+        order.setVoucherId(Long.valueOf(voucherId));
+        order.setCreateTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(createTime)), ZoneId.systemDefault()));
+        return order;
+    }
+
+    /**
+     * 重启前后保持不变，才能重放自己待处理列表中的消息
+     */
+    private String consumerPrefix() {
+        if (StrUtil.isNotBlank(consumerName)) {
+            return consumerName;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            log.warn("获取主机名失败,使用默认消费者名称", e);
+            return "voucher-order-consumer";
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>(8);
+        stats.put("group", group);
+        stats.put("streams", streams.size());
+        stats.put("consumers", consumers);
+        stats.put("ackCount", ackCount.sum());
+        stats.put("reclaimCount", reclaimCount.sum());
+        stats.put("deadLetterCount", deadLetterCount.sum());
+        stats.put("retiredCount", retiredCount.sum());
+        return stats;
+    }
+
+    private static boolean isNoGroup(Exception e) {
+        return e.getMessage() != null && e.getMessage().contains("NOGROUP");
+    }
+
+    private static byte[] toBytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISecKillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀订单批量写入器。请求线程把已在 Redis 中扣减成功的订单放入有界队列，
+ * 写入线程攒够 batch-size 条或等待 flush-interval-millis 后，在一个事务中用一条多行 INSERT 写入订单，
+ * 并按秒杀券合并扣减数据库库存。事务提交即落盘，失败时按指数退避一直重试到数据库恢复，
+ * 重试前先过滤掉已经写入的订单，提交成功但确认丢失时也不会重复写入；
+ * 数据库中同一用户对同一秒杀券只能有一笔订单，Redis 已下单用户集合丢失后放进来的重复订单不写入，只归还库存。
+ * 重试期间写入线程不再消费队列，队列满后请求线程最多等待 offer-timeout-millis，仍然放不进去则由调用方撤销扣减。
+ * 只有应用关闭时重试 max-retries 次仍失败的订单才会放弃，确认没有写入数据库后通过 {@link SecKillCompensator} 归还库存和下单资格。
+ *
+ * @author Hikarukimi
+ */
+@Slf4j
+@Component
+public class VoucherOrderWriter {
+
+    /**
+     * 批次大小直方图的桶上界
+     */
+    private static final int[] BATCH_SIZE_BUCKETS = {1, 5, 10, 50, 100, 500, Integer.MAX_VALUE};
+
+    private static final long MAX_BACKOFF_MILLIS = 5000L;
+
+    /**
+     * 唯一索引冲突时立即重新过滤重试的次数
+     */
+    private static final int DUPLICATE_KEY_RETRIES = 3;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private ISecKillVoucherService secKillVoucherService;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private SecKillCompensator compensator;
+
+    @Value("${hmdp.seckill.writer.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${hmdp.seckill.writer.batch-size:200}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.writer.flush-interval-millis:50}")
+    private long flushIntervalMillis;
+
+    @Value("${hmdp.seckill.writer.offer-timeout-millis:100}")
+    private long offerTimeoutMillis;
+
+    @Value("${hmdp.seckill.writer.max-retries:5}")
+    private int maxRetries;
+
+    private BlockingQueue<PendingOrder> queue;
+
+    private final ExecutorService writerExecutor = Executors.newSingleThreadExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("voucher-order-writer-").setDaemon(true).build());
+
+    private volatile boolean running = true;
+
+    private final LongAdder writtenCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder retryCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder duplicateCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder lagSumMillis = new LongAdder();
+    private final LongAdder lagCount = new LongAdder();
+    private final AtomicLong lastLagMillis = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final LongAdder[] batchSizeHistogram = new LongAdder[BATCH_SIZE_BUCKETS.length];
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < batchSizeHistogram.length; i++) {
+            batchSizeHistogram[i] = new LongAdder();
+        }
+        writerExecutor.execute(this::runWriter);
+    }
+
+    /**
+     * 停止接收新订单，等待写入线程写完队列中剩余的订单
+     */
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        writerExecutor.shutdown();
+        if (!writerExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+            List<PendingOrder> remaining = new ArrayList<>(queue.size());
+            queue.drainTo(remaining);
+            log.error("应用关闭时仍有{}个秒杀订单未写入数据库,撤销这些订单", remaining.size());
+            compensate(remaining);
+        }
+    }
+
+    /**
+     * 提交订单，队列满时最多等待 offer-timeout-millis
+     *
+     * @return false表示队列已满或正在关闭，调用方需要撤销本次扣减
+     */
+    public boolean submit(VoucherOrder voucherOrder) {
+        boolean accepted = false;
+        if (running) {
+            try {
+                accepted = queue.offer(new PendingOrder(voucherOrder, System.currentTimeMillis()),
+                        offerTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!accepted) {
+            rejectedCount.increment();
+        }
+        return accepted;
+    }
+
+    private void runWriter() {
+        List<PendingOrder> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                if (!collect(batch)) {
+                    continue;
+                }
+                flushWithRetry(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("秒杀订单写入线程被中断,撤销当前批次{}个订单,队列中剩余{}个订单", batch.size(), queue.size());
+                compensate(batch);
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 等待第一条订单后继续收集，直到批次已满或距第一条订单超过 flush-interval-millis
+     *
+     * @return 是否收集到订单
+     */
+    private boolean collect(List<PendingOrder> batch) throws InterruptedException {
+        PendingOrder first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        batch.add(first);
+        long deadline = System.currentTimeMillis() + flushIntervalMillis;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.currentTimeMillis();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                break;
+            }
+            PendingOrder next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return true;
+    }
+
+    private void flushWithRetry(List<PendingOrder> batch) throws InterruptedException {
+        List<VoucherOrder> orders = new ArrayList<>(batch.size());
+        for (PendingOrder pending : batch) {
+            orders.add(pending.order);
+        }
+        for (int attempt = 0; ; attempt++) {
+            try {
+                write(orders);
+                break;
+            } catch (Exception e) {
+                if (!running && attempt >= maxRetries) {
+                    // 应用正在关闭，无法继续等待数据库恢复
+                    log.error("秒杀订单写入重试{}次仍失败,撤销本批{}个订单:{}", attempt, orders.size(), orders, e);
+                    compensate(batch);
+                    break;
+                }
+                retryCount.increment();
+                long backoff = Math.min(100L << attempt, MAX_BACKOFF_MILLIS);
+                log.warn("秒杀订单写入失败,{}毫秒后第{}次重试", backoff, attempt + 1, e);
+                Thread.sleep(backoff);
+            }
+        }
+        recordMetrics(batch);
+    }
+
+    /**
+     * 逐个撤销放弃写入的订单。先按订单id查询数据库，提交成功但确认丢失的订单已经落库，不能撤销；
+     * 查询失败时无法确认，不撤销，只能记录日志人工处理
+     */
+    private void compensate(List<PendingOrder> batch) {
+        List<VoucherOrder> orders = new ArrayList<>(batch.size());
+        for (PendingOrder pending : batch) {
+            orders.add(pending.order);
+        }
+        List<VoucherOrder> unwritten;
+        try {
+            unwritten = unwritten(orders);
+        } catch (Exception e) {
+            droppedCount.add(orders.size());
+            log.error("无法确认{}个秒杀订单是否已写入数据库,不撤销,需要人工处理:{}", orders.size(), orders, e);
+            return;
+        }
+        for (VoucherOrder order : unwritten) {
+            droppedCount.increment();
+            try {
+                compensator.compensate(order);
+            } catch (Exception e) {
+                log.error("撤销秒杀订单失败,需要人工处理:{}", order, e);
+            }
+        }
+    }
+
+    /**
+     * 按订单id查询数据库，返回其中尚未写入的订单。撤销订单前必须先确认，已写入的订单不能撤销
+     */
+    public List<VoucherOrder> unwritten(List<VoucherOrder> orders) {
+        List<Long> ids = new ArrayList<>(orders.size());
+        for (VoucherOrder order : orders) {
+            ids.add(order.getId());
+        }
+        Set<Long> written = new HashSet<>();
+        for (Object id : voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>().select("id").in("id", ids))) {
+            written.add(((Number) id).longValue());
+        }
+        List<VoucherOrder> unwritten = new ArrayList<>(orders.size());
+        for (VoucherOrder order : orders) {
+            if (written.contains(order.getId())) {
+                log.warn("秒杀订单已写入数据库,不撤销:{}", order);
+            } else {
+                unwritten.add(order);
+            }
+        }
+        return unwritten;
+    }
+
+    /**
+     * 在一个事务中写入一批订单，已经写入过的订单会被跳过，可以安全地重复调用。
+     * 同一用户对同一秒杀券已有订单时不再写入，事务提交后归还该订单在 Redis 中占用的库存；
+     * 并发写入触发唯一索引冲突时重新过滤后再写
+     *
+     * @return 本次实际写入的订单数
+     */
+    public int write(List<VoucherOrder> orders) {
+        for (int attempt = 1; ; attempt++) {
+            List<VoucherOrder> duplicates = new ArrayList<>();
+            Integer written;
+            try {
+                written = transactionTemplate.execute(status -> flush(orders, duplicates));
+            } catch (DuplicateKeyException e) {
+                if (attempt >= DUPLICATE_KEY_RETRIES) {
+                    throw e;
+                }
+                log.warn("秒杀订单写入时唯一索引冲突,重新过滤后第{}次重试", attempt, e);
+                continue;
+            }
+            for (VoucherOrder duplicate : duplicates) {
+                compensator.restock(duplicate);
+            }
+            duplicateCount.add(duplicates.size());
+            int count = written == null ? 0 : written;
+            writtenCount.add(count);
+            return count;
+        }
+    }
+
+    /**
+     * 写入尚未写入的订单并按秒杀券合并扣减库存。
+     * 订单id已存在说明之前写入过；同一用户对同一秒杀券已有其他订单，或本批中已有一笔，则是重复订单
+     *
+     * @param duplicates 收集重复订单
+     * @return 本次写入的订单数
+     */
+    private int flush(List<VoucherOrder> orders, List<VoucherOrder> duplicates) {
+        Set<Long> voucherIds = new HashSet<>();
+        Set<Long> userIds = new HashSet<>();
+        for (VoucherOrder order : orders) {
+            voucherIds.add(order.getVoucherId());
+            userIds.add(order.getUserId());
+        }
+        // 按唯一索引查出这些用户在这些秒杀券上已有的订单
+        List<VoucherOrder> existing = voucherOrderMapper.selectList(new QueryWrapper<VoucherOrder>()
+                .select("id", "user_id", "voucher_id")
+                .in("voucher_id", voucherIds)
+                .in("user_id", userIds));
+        Set<Long> existingIds = new HashSet<>();
+        Set<String> buyers = new HashSet<>();
+        for (VoucherOrder order : existing) {
+            existingIds.add(order.getId());
+            buyers.add(order.getVoucherId() + ":" + order.getUserId());
+        }
+        List<VoucherOrder> pending = new ArrayList<>(orders.size());
+        Map<Long, Integer> stockDeductions = new LinkedHashMap<>();
+        for (VoucherOrder order : orders) {
+            if (existingIds.contains(order.getId())) {
+                continue;
+            }
+            if (!buyers.add(order.getVoucherId() + ":" + order.getUserId())) {
+                duplicates.add(order);
+                continue;
+            }
+            pending.add(order);
+            stockDeductions.merge(order.getVoucherId(), 1, Integer::sum);
+        }
+        if (!duplicates.isEmpty()) {
+            log.error("已下单用户集合与数据库不一致,{}个重复订单不写入:{}", duplicates.size(), duplicates);
+        }
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        voucherOrderMapper.insertBatch(pending);
+        stockDeductions.forEach((voucherId, count) -> {
+            boolean deducted = secKillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", count)
+                    .update();
+            if (!deducted) {
+                log.error("数据库库存与 Redis 不一致,秒杀券id:{},本批扣减:{}", voucherId, count);
+            }
+        });
+        return pending.size();
+    }
+
+    private void recordMetrics(List<PendingOrder> batch) {
+        long now = System.currentTimeMillis();
+        long lag = now - batch.get(0).enqueuedAt;
+        lastLagMillis.set(lag);
+        maxLagMillis.accumulateAndGet(lag, Math::max);
+        for (PendingOrder pending : batch) {
+            lagSumMillis.add(now - pending.enqueuedAt);
+        }
+        lagCount.add(batch.size());
+        batchCount.increment();
+        for (int i = 0; i < BATCH_SIZE_BUCKETS.length; i++) {
+            if (batch.size() <= BATCH_SIZE_BUCKETS[i]) {
+                batchSizeHistogram[i].increment();
+                break;
+            }
+        }
+    }
+
+    /**
+     * 写入延迟、批次大小分布和队列状态
+     */
+    public Map<String, Object> stats() {
+        long lagged = lagCount.sum();
+        Map<String, Long> histogram = new LinkedHashMap<>(BATCH_SIZE_BUCKETS.length * 2);
+        for (int i = 0; i < BATCH_SIZE_BUCKETS.length; i++) {
+            String bucket = BATCH_SIZE_BUCKETS[i] == Integer.MAX_VALUE ? "+Inf" : "<=" + BATCH_SIZE_BUCKETS[i];
+            histogram.put(bucket, batchSizeHistogram[i].sum());
+        }
+        Map<String, Object> stats = new HashMap<>(16);
+        stats.put("queueSize", queue.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("writtenCount", writtenCount.sum());
+        stats.put("rejectedCount", rejectedCount.sum());
+        stats.put("retryCount", retryCount.sum());
+        stats.put("droppedCount", droppedCount.sum());
+        stats.put("duplicateCount", duplicateCount.sum());
+        stats.put("batchCount", batchCount.sum());
+        stats.put("batchSizeHistogram", histogram);
+        // 订单从进入队列到事务提交的延迟
+        stats.put("lastLagMillis", lastLagMillis.get());
+        stats.put("maxLagMillis", maxLagMillis.get());
+        stats.put("avgLagMillis", lagged == 0 ? 0D : (double) lagSumMillis.sum() / lagged);
+        return stats;
+    }
+
+    private static final class PendingOrder {
+        private final VoucherOrder order;
+        private final long enqueuedAt;
+
+        private PendingOrder(VoucherOrder order, long enqueuedAt) {
+            this.order = order;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
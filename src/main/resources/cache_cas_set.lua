@@ -0,0 +1,12 @@
+-- 按版本号回填缓存哈希：已有版本比要写入的版本新时拒绝写入
+-- KEYS[1] 缓存key，ARGV[1] 版本号，ARGV[2] TTL秒数（0表示不设置），ARGV[3..] 字段和值
+local current = redis.call('hget', KEYS[1], 'version')
+if current and tonumber(current) > tonumber(ARGV[1]) then
+    return 0
+end
+redis.call('del', KEYS[1])
+redis.call('hmset', KEYS[1], 'version', ARGV[1], unpack(ARGV, 3))
+if tonumber(ARGV[2]) > 0 then
+    redis.call('expire', KEYS[1], ARGV[2])
+end
+return 1
@@ -0,0 +1,10 @@
+-- 数据修改后把缓存哈希替换为只有版本号的墓碑，版本不高于墓碑的旧数据无法再回填
+-- KEYS[1] 缓存key，ARGV[1] 修改后的版本号，ARGV[2] 墓碑TTL秒数
+local current = redis.call('hget', KEYS[1], 'version')
+if current and tonumber(current) > tonumber(ARGV[1]) then
+    return 0
+end
+redis.call('del', KEYS[1])
+redis.call('hset', KEYS[1], 'version', ARGV[1])
+redis.call('expire', KEYS[1], ARGV[2])
+return 1
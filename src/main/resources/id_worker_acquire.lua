@@ -0,0 +1,7 @@
+-- 租用机器号：租约不存在时写入持有者标识并设置过期时间，返回上一个持有者最后使用的毫秒时间戳
+-- KEYS[1] 租约key，KEYS[2] 最后使用时间戳key，ARGV[1] 持有者标识，ARGV[2] 租约毫秒数
+-- 返回 -1：机器号已被占用
+if not redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+    return -1
+end
+return tonumber(redis.call('get', KEYS[2]) or '0')
@@ -0,0 +1,13 @@
+-- 续租机器号并记录最后使用的毫秒时间戳，ARGV[2] 为 0 时释放租约
+-- KEYS[1] 租约key，KEYS[2] 最后使用时间戳key，ARGV[1] 持有者标识，ARGV[2] 租约毫秒数，ARGV[3] 最后使用的时间戳
+-- 返回 1：成功，0：租约已不属于当前持有者
+if redis.call('get', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+redis.call('set', KEYS[2], ARGV[3])
+if ARGV[2] == '0' then
+    redis.call('del', KEYS[1])
+else
+    redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 1
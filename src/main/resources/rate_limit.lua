@@ -0,0 +1,13 @@
+-- 滑动窗口限流：清理窗口外的请求记录，窗口内请求数未达上限时记录本次请求
+-- KEYS[1] 限流key，ARGV[1] 当前毫秒时间戳，ARGV[2] 窗口毫秒数，ARGV[3] 窗口内允许的请求数，ARGV[4] 本次请求的唯一标识
+-- 返回 0：放行，否则返回最早一次请求移出窗口还需等待的毫秒数
+local now = tonumber(ARGV[1])
+local window = tonumber(ARGV[2])
+redis.call('zremrangebyscore', KEYS[1], 0, now - window)
+if redis.call('zcard', KEYS[1]) < tonumber(ARGV[3]) then
+    redis.call('zadd', KEYS[1], now, ARGV[4])
+    redis.call('pexpire', KEYS[1], window)
+    return 0
+end
+local oldest = redis.call('zrange', KEYS[1], 0, 0, 'withscores')
+return math.max(1, tonumber(oldest[2]) + window - now)
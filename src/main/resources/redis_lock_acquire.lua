@@ -0,0 +1,9 @@
+-- 可重入加锁：锁不存在或已由同一持有者持有时重入次数加一并重置租约
+-- KEYS[1] 锁key，ARGV[1] 持有者标识，ARGV[2] 租约毫秒数
+-- 返回 -1：加锁成功，否则返回锁的剩余毫秒数
+if redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return -1
+end
+return redis.call('pttl', KEYS[1])
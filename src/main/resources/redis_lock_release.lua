@@ -0,0 +1,13 @@
+-- 可重入解锁：重入次数减一，减到 0 时删除锁并通知等待者
+-- KEYS[1] 锁key，ARGV[1] 持有者标识，ARGV[2] 租约毫秒数，ARGV[3] 释放通知频道
+-- 返回 0：锁不属于该持有者，1：仍持有，2：已释放
+if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then
+    return 0
+end
+if redis.call('hincrby', KEYS[1], ARGV[1], -1) > 0 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+redis.call('del', KEYS[1])
+redis.call('publish', ARGV[3], KEYS[1])
+return 2
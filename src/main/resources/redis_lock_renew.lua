@@ -0,0 +1,8 @@
+-- 看门狗续租：锁仍由该持有者持有时重置租约
+-- KEYS[1] 锁key，ARGV[1] 持有者标识，ARGV[2] 租约毫秒数
+-- 返回 1：续租成功，0：锁已不属于该持有者
+if redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
@@ -0,0 +1,35 @@
+-- 秒杀：校验时间窗口、一人一单和库存后扣减库存并记录下单用户，全部在一次调用中原子完成
+-- KEYS[1] 库存key，KEYS[2] 已下单用户集合，KEYS[3] 时间窗口哈希，KEYS[4] 订单消息流（可选）
+-- ARGV[1] 用户id，ARGV[2] 当前毫秒时间戳，ARGV[3] 订单id，ARGV[4] 秒杀券id，ARGV[5] 消息流的近似最大长度，
+-- ARGV[6] 为 1 时库存不足也记录下单用户，用于分段库存：用户占住下单资格后再到其他分段扣减
+-- 传入 KEYS[4] 时扣减成功后在同一脚本中把订单写入消息流，扣减与订单记录同时生效
+-- 返回 0：成功，1：库存不足，2：重复下单，3：未开始，4：已结束，5：秒杀券不存在，6：本分段库存不足但已记录下单用户
+local stock = redis.call('get', KEYS[1])
+local window = redis.call('hmget', KEYS[3], 'begin', 'end')
+if not stock or not window[1] or not window[2] then
+    return 5
+end
+local now = tonumber(ARGV[2])
+if now < tonumber(window[1]) then
+    return 3
+end
+if now > tonumber(window[2]) then
+    return 4
+end
+if redis.call('sismember', KEYS[2], ARGV[1]) == 1 then
+    return 2
+end
+if tonumber(stock) <= 0 then
+    if ARGV[6] == '1' then
+        redis.call('sadd', KEYS[2], ARGV[1])
+        return 6
+    end
+    return 1
+end
+redis.call('decr', KEYS[1])
+redis.call('sadd', KEYS[2], ARGV[1])
+if KEYS[4] then
+    redis.call('xadd', KEYS[4], 'MAXLEN', '~', ARGV[5], '*',
+            'id', ARGV[3], 'userId', ARGV[1], 'voucherId', ARGV[4], 'createTime', ARGV[2])
+end
+return 0
@@ -0,0 +1,10 @@
+-- 归还数据库因一人一单拒绝写入的重复订单占用的库存，用户已有订单，仍留在已下单用户集合中
+-- KEYS[1] 库存key，KEYS[2] 已归还的订单id集合，与库存key在同一槽位
+-- ARGV[1] 订单id，ARGV[2] 已归还集合的过期秒数
+-- 同一订单只归还一次，返回 1：已归还，0：之前已经归还过
+if redis.call('sadd', KEYS[2], ARGV[1]) == 0 then
+    return 0
+end
+redis.call('expire', KEYS[2], ARGV[2])
+redis.call('incr', KEYS[1])
+return 1
@@ -0,0 +1,7 @@
+-- 撤销一次秒杀扣减：用户确实在已下单集合中时才归还库存，避免重复归还
+-- KEYS[1] 库存key，KEYS[2] 已下单用户集合，ARGV[1] 用户id
+if redis.call('srem', KEYS[2], ARGV[1]) == 1 then
+    redis.call('incr', KEYS[1])
+    return 1
+end
+return 0
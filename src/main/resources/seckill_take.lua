@@ -0,0 +1,14 @@
+-- 分段库存：用户所在分段库存不足时，从其他分段扣减一份库存
+-- KEYS[1] 分段库存key，KEYS[2] 分段订单消息流（可选）
+-- ARGV 与 seckill.lua 相同
+-- 返回 1：扣减成功，0：该分段库存不足
+local stock = tonumber(redis.call('get', KEYS[1]))
+if not stock or stock <= 0 then
+    return 0
+end
+redis.call('decr', KEYS[1])
+if KEYS[2] then
+    redis.call('xadd', KEYS[2], 'MAXLEN', '~', ARGV[5], '*',
+            'id', ARGV[3], 'userId', ARGV[1], 'voucherId', ARGV[4], 'createTime', ARGV[2])
+end
+return 1
@@ -0,0 +1,50 @@
+package com.hmdp;
+
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+
+/**
+ * 测试用的本地 Redis，在随机端口上启动，用于验证 Lua 脚本
+ *
+ * @author Hikarukimi
+ */
+public class EmbeddedRedis {
+
+    private final RedisServer server;
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    private final StringRedisTemplate template;
+
+    public EmbeddedRedis() {
+        int port = freePort();
+        server = RedisServer.builder().port(port).setting("bind 127.0.0.1").build();
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        template = new StringRedisTemplate(connectionFactory);
+    }
+
+    public StringRedisTemplate template() {
+        return template;
+    }
+
+    public void stop() {
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.config.RateLimitProperties;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+
+class RateLimitInterceptorTest {
+
+    private static final String PATH = "/voucher-order/seckill/1";
+
+    private static EmbeddedRedis redis;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        UserHolder.removeUser();
+        redis.template().delete(redis.template().keys(RedisConstants.RATE_LIMIT_KEY + "*"));
+    }
+
+    @Test
+    void localBucketRejectsBurstWithoutRedis() throws Exception {
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        RateLimitInterceptor interceptor = interceptor(template, rule("user", 1, 3, 0));
+        login(1L);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(pass(interceptor, "10.0.0.1"));
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(request("10.0.0.1"), response, new Object()));
+        assertEquals(429, response.getStatus());
+        assertEquals("1", response.getHeader("Retry-After"));
+        // 另一个用户有自己的令牌桶
+        login(2L);
+        assertTrue(pass(interceptor, "10.0.0.1"));
+        Mockito.verifyNoInteractions(template);
+    }
+
+    @Test
+    void localBucketRefills() throws Exception {
+        RateLimitInterceptor interceptor = interceptor(redis.template(), rule("ip", 20, 1, 0));
+        assertTrue(pass(interceptor, "10.0.0.1"));
+        assertFalse(pass(interceptor, "10.0.0.1"));
+        Thread.sleep(100);
+        assertTrue(pass(interceptor, "10.0.0.1"));
+    }
+
+    /**
+     * 未登录时不信任请求头中的令牌，换令牌也还在同一个地址的限流里，且不会为伪造的令牌创建限流记录
+     */
+    @Test
+    void forgedTokensShareTheIpLimit() throws Exception {
+        RateLimitInterceptor interceptor = interceptor(redis.template(), rule("user", 0, 1, 2));
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletRequest request = request("10.0.0.1");
+            request.addHeader("authorization", "forged-" + i);
+            assertTrue(interceptor.preHandle(request, new MockHttpServletResponse(), new Object()));
+        }
+        MockHttpServletRequest request = request("10.0.0.1");
+        request.addHeader("authorization", "forged-2");
+        assertFalse(interceptor.preHandle(request, new MockHttpServletResponse(), new Object()));
+        assertEquals(Collections.singleton(RedisConstants.RATE_LIMIT_KEY + "0:ip:10.0.0.1"),
+                redis.template().keys(RedisConstants.RATE_LIMIT_KEY + "*"));
+    }
+
+    @Test
+    void redisWindowLimitsAcrossNodes() throws Exception {
+        RateLimitProperties.Rule rule = rule("user", 0, 1, 3);
+        RateLimitInterceptor first = interceptor(redis.template(), rule);
+        RateLimitInterceptor second = interceptor(redis.template(), rule);
+        login(1L);
+        assertTrue(pass(first, "10.0.0.1"));
+        assertTrue(pass(second, "10.0.0.2"));
+        assertTrue(pass(first, "10.0.0.1"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(second.preHandle(request("10.0.0.2"), response, new Object()));
+        assertEquals(429, response.getStatus());
+        assertNotNull(response.getHeader("Retry-After"));
+
+        String key = RedisConstants.RATE_LIMIT_KEY + "0:user:1";
+        assertEquals(3L, redis.template().opsForZSet().zCard(key));
+        Long ttl = redis.template().getExpire(key);
+        assertTrue(ttl != null && ttl >= 0 && ttl <= 1, "限流记录应在窗口结束后过期");
+
+        // 窗口滑过后重新放行
+        Thread.sleep(1100);
+        assertTrue(pass(second, "10.0.0.2"));
+    }
+
+    @Test
+    void redisFailureFallsBackToLocalLimit() throws Exception {
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        Mockito.when(template.execute(any(RedisScript.class), anyList(), any()))
+                .thenThrow(new RedisConnectionFailureException("down"));
+        RateLimitInterceptor interceptor = interceptor(template, rule("ip", 1, 1, 1));
+        assertTrue(pass(interceptor, "10.0.0.1"));
+        assertFalse(pass(interceptor, "10.0.0.1"));
+    }
+
+    @Test
+    void unmatchedPathIsNotLimited() throws Exception {
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        RateLimitInterceptor interceptor = interceptor(template, rule("ip", 1, 1, 1));
+        MockHttpServletRequest request = request("10.0.0.1");
+        request.setRequestURI("/shop/1");
+        for (int i = 0; i < 5; i++) {
+            assertTrue(interceptor.preHandle(request, new MockHttpServletResponse(), new Object()));
+        }
+        Mockito.verifyNoInteractions(template);
+    }
+
+    private static RateLimitInterceptor interceptor(StringRedisTemplate template, RateLimitProperties.Rule rule) {
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getRules().add(rule);
+        return new RateLimitInterceptor(template, properties);
+    }
+
+    private static RateLimitProperties.Rule rule(String key, double permitsPerSecond, int burst, int windowLimit) {
+        RateLimitProperties.Rule rule = new RateLimitProperties.Rule();
+        rule.setPattern("/voucher-order/seckill/**");
+        rule.setKey(key);
+        rule.setLocalPermitsPerSecond(permitsPerSecond);
+        rule.setLocalBurst(burst);
+        rule.setWindowSeconds(1);
+        rule.setWindowLimit(windowLimit);
+        return rule;
+    }
+
+    private static boolean pass(RateLimitInterceptor interceptor, String ip) throws Exception {
+        return interceptor.preHandle(request(ip), new MockHttpServletResponse(), new Object());
+    }
+
+    private static MockHttpServletRequest request(String ip) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", PATH);
+        request.setRemoteAddr(ip);
+        return request;
+    }
+
+    private static void login(long userId) {
+        UserDTO user = new UserDTO();
+        user.setId(userId);
+        UserHolder.saveUser(user);
+    }
+}
@@ -0,0 +1,63 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotKeyDetectorTest {
+
+    private HotKeyDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        detector = new HotKeyDetector();
+        ReflectionTestUtils.setField(detector, "sampleRate", 1.0);
+        ReflectionTestUtils.setField(detector, "windowSeconds", 3600L);
+        ReflectionTestUtils.setField(detector, "topK", 1);
+        ReflectionTestUtils.setField(detector, "threshold", 2L);
+        ReflectionTestUtils.setField(detector, "pinTtlSeconds", 5L);
+        detector.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        detector.destroy();
+    }
+
+    /**
+     * 候选集被先到的key占满后，访问更多的key仍能挤掉最小的候选成为热点
+     */
+    @Test
+    void lateHeavyKeyEvictsSmallestCandidate() {
+        for (int i = 0; i < 4; i++) {
+            record("shop:" + i, 2);
+        }
+        record("shop:hot", 100);
+        assertEquals(4, detector.stats().get("candidateCount"), "候选集不应超过topK的4倍");
+        rotate();
+        assertTrue(detector.isHot("shop:hot"));
+    }
+
+    @Test
+    void keysBelowThresholdAreNotCandidates() {
+        record("shop:1", 1);
+        assertEquals(0, detector.stats().get("candidateCount"));
+        rotate();
+        assertFalse(detector.isHot("shop:1"));
+    }
+
+    private void record(String key, int times) {
+        for (int i = 0; i < times; i++) {
+            detector.record(key);
+        }
+    }
+
+    private void rotate() {
+        ReflectionTestUtils.invokeMethod(detector, "rotate");
+    }
+}
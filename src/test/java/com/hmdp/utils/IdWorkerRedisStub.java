@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+
+/**
+ * 在内存中模拟 id_worker_acquire.lua 和 id_worker_renew.lua，不需要启动 Redis 即可创建 {@link SnowflakeIdGenerator}
+ *
+ * @author Hikarukimi
+ */
+class IdWorkerRedisStub {
+
+    /**
+     * 租约key -> 持有者标识
+     */
+    private final Map<String, String> leases = new ConcurrentHashMap<>();
+
+    /**
+     * 最后使用时间戳key -> 毫秒时间戳
+     */
+    private final Map<String, Long> lastTimestamps = new ConcurrentHashMap<>();
+
+    /**
+     * 只允许租用这个机器号，小于 0 时不限制
+     */
+    private final int onlyWorker;
+
+    private final StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    IdWorkerRedisStub(int onlyWorker) {
+        this.onlyWorker = onlyWorker;
+        Mockito.when(template.execute(any(RedisScript.class), anyList(), any())).thenAnswer(invocation -> {
+            List<String> keys = invocation.getArgument(1);
+            Object[] all = invocation.getArguments();
+            Object[] args = Arrays.copyOfRange(all, 2, all.length);
+            // 租用脚本两个参数，续租脚本三个参数
+            return args.length == 2 ? acquire(keys, args[0].toString()) : renew(keys, args);
+        });
+    }
+
+    SnowflakeIdGenerator newGenerator(int prefetchSize) {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator();
+        ReflectionTestUtils.setField(generator, "stringRedisTemplate", template);
+        ReflectionTestUtils.setField(generator, "leaseSeconds", 60L);
+        ReflectionTestUtils.setField(generator, "prefetchSize", prefetchSize);
+        generator.init();
+        return generator;
+    }
+
+    private synchronized long acquire(List<String> keys, String token) {
+        if (onlyWorker >= 0 && !keys.get(0).equals(RedisConstants.ID_WORKER_KEY + "{" + onlyWorker + "}")) {
+            return -1L;
+        }
+        if (leases.putIfAbsent(keys.get(0), token) != null) {
+            return -1L;
+        }
+        return lastTimestamps.getOrDefault(keys.get(1), 0L);
+    }
+
+    private synchronized long renew(List<String> keys, Object[] args) {
+        if (!args[0].toString().equals(leases.get(keys.get(0)))) {
+            return 0L;
+        }
+        lastTimestamps.put(keys.get(1), Long.parseLong(args[2].toString()));
+        if ("0".equals(args[1].toString())) {
+            leases.remove(keys.get(0));
+        }
+        return 1L;
+    }
+}
@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商铺、登录用户与 Redis Hash 之间的编解码吞吐量和耗时，对比 {@link RedisHashCodec} 与原先基于反射的 BeanUtil 写法。
+ * 登录用户哈希由 User 写入，拦截器每次请求从中读出 UserDTO。
+ * <p>
+ * 运行：mvn test-compile 后执行本类的 main 方法，GC 分析器输出的 gc.alloc.rate.norm 为每次操作分配的字节数
+ *
+ * @author Hikarukimi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisHashCodecBenchmark {
+
+    /**
+     * 与改为手写映射之前 ShopCacheClient 中的配置相同
+     */
+    private static final CopyOptions COPY_OPTIONS = CopyOptions.create()
+            .setIgnoreNullValue(true)
+            .setFieldValueEditor((k, value) -> value != null ? value.toString() : null);
+
+    private Shop shop;
+
+    private Map<String, String> hash;
+
+    private User user;
+
+    private Map<String, String> userHash;
+
+    @Setup
+    public void setUp() {
+        shop = sampleShop();
+        hash = RedisHashCodec.fromShop(shop);
+        user = sampleUser();
+        userHash = RedisHashCodec.fromUser(user);
+    }
+
+    @Benchmark
+    public Map<String, String> encodeWithCodec() {
+        return RedisHashCodec.fromShop(shop);
+    }
+
+    @Benchmark
+    public Map<String, String> encodeWithBeanUtil() {
+        return encodeWithBeanUtil(shop);
+    }
+
+    @Benchmark
+    public Shop decodeWithCodec() {
+        return RedisHashCodec.toShop(hash);
+    }
+
+    @Benchmark
+    public Shop decodeWithBeanUtil() {
+        return BeanUtil.toBean(hash, Shop.class);
+    }
+
+    @Benchmark
+    public Map<String, String> encodeUserWithCodec() {
+        return RedisHashCodec.fromUser(user);
+    }
+
+    @Benchmark
+    public Map<String, String> encodeUserWithBeanUtil() {
+        return encodeWithBeanUtil(user);
+    }
+
+    @Benchmark
+    public UserDTO decodeUserDtoWithCodec() {
+        return RedisHashCodec.toUserDto(userHash);
+    }
+
+    @Benchmark
+    public UserDTO decodeUserDtoWithBeanUtil() {
+        return BeanUtil.fillBeanWithMap(userHash, new UserDTO(), false);
+    }
+
+    static Map<String, String> encodeWithBeanUtil(Object bean) {
+        Map<String, String> map = new HashMap<>(32);
+        BeanUtil.beanToMap(bean, new HashMap<>(), COPY_OPTIONS).forEach((k, v) -> map.put(k, v.toString()));
+        return map;
+    }
+
+    static Shop sampleShop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        shop.setVersion(3L);
+        return shop;
+    }
+
+    static User sampleUser() {
+        User user = new User();
+        user.setId(1010L);
+        user.setPhone("13686869696");
+        user.setNickName("user_slxaxy2au9f3tanffaxr");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        user.setCreateTime(LocalDateTime.of(2021, 12, 24, 10, 27, 19));
+        user.setUpdateTime(LocalDateTime.of(2022, 1, 11, 16, 4, 12));
+        return user;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RedisHashCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RedisHashCodecTest {
+
+    /**
+     * 与 BeanUtil 写入的缓存格式一致，新旧代码写入的缓存可以互相读取
+     */
+    @Test
+    void shopHashMatchesBeanUtil() {
+        Shop shop = RedisHashCodecBenchmark.sampleShop();
+        Map<String, String> hash = RedisHashCodec.fromShop(shop);
+        assertEquals(RedisHashCodecBenchmark.encodeWithBeanUtil(shop), hash);
+        assertEquals(shop, RedisHashCodec.toShop(hash));
+        assertEquals(BeanUtil.toBean(hash, Shop.class), RedisHashCodec.toShop(hash));
+    }
+
+    @Test
+    void nullFieldsAreSkipped() {
+        Shop shop = new Shop();
+        shop.setId(2L);
+        Map<String, String> hash = RedisHashCodec.fromShop(shop);
+        assertEquals(RedisHashCodecBenchmark.encodeWithBeanUtil(shop), hash);
+        assertEquals(shop, RedisHashCodec.toShop(hash));
+    }
+
+    @Test
+    void userHashMatchesBeanUtil() {
+        User user = RedisHashCodecBenchmark.sampleUser();
+        Map<String, String> hash = RedisHashCodec.fromUser(user);
+        assertEquals(RedisHashCodecBenchmark.encodeWithBeanUtil(user), hash);
+        assertEquals(user, RedisHashCodec.toUser(hash));
+        assertEquals(BeanUtil.toBean(hash, User.class), RedisHashCodec.toUser(hash));
+    }
+
+    /**
+     * 登录时写入完整的 User 字段，拦截器从同一个哈希中读出 UserDTO
+     */
+    @Test
+    void userDtoIsReadFromTheUserHash() {
+        User user = RedisHashCodecBenchmark.sampleUser();
+        Map<String, String> hash = RedisHashCodec.fromUser(user);
+        UserDTO userDTO = RedisHashCodec.toUserDto(hash);
+        assertEquals(UserDTO.entityToDto(user), userDTO);
+        assertEquals(BeanUtil.fillBeanWithMap(hash, new UserDTO(), false), userDTO);
+    }
+
+    @Test
+    void userDtoRoundTrip() {
+        UserDTO userDTO = UserDTO.entityToDto(RedisHashCodecBenchmark.sampleUser());
+        Map<String, String> hash = RedisHashCodec.fromUserDto(userDTO);
+        assertEquals(RedisHashCodecBenchmark.encodeWithBeanUtil(userDTO), hash);
+        assertEquals(userDTO, RedisHashCodec.toUserDto(hash));
+    }
+
+    @Test
+    void userHashWithoutIdIsNull() {
+        assertNull(RedisHashCodec.toUser(new HashMap<>()));
+        assertNull(RedisHashCodec.toUserDto(new HashMap<>()));
+    }
+}
@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+
+class RedisLockTest {
+
+    private static EmbeddedRedis redis;
+
+    private RedisMessageListenerContainer container;
+
+    private RedisLock lock;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redis.template().getConnectionFactory());
+        container.afterPropertiesSet();
+        container.start();
+        lock = new RedisLock(redis.template(), container);
+        ReflectionTestUtils.setField(lock, "leaseMillis", 30000L);
+        ReflectionTestUtils.setField(lock, "waitMillis", 200L);
+        lock.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        lock.destroy();
+        container.destroy();
+    }
+
+    /**
+     * 持有一个 key 时，同一节点的其他线程加另一个 key 不需要等待
+     */
+    @Test
+    void unrelatedKeysDoNotBlockEachOther() throws Exception {
+        assertTrue(lock.tryLock("order:1"));
+        try {
+            long begin = System.nanoTime();
+            assertTrue(inOtherThread(() -> {
+                boolean locked = lock.tryLock("order:2", 1000);
+                if (locked) {
+                    lock.unlock("order:2");
+                }
+                return locked;
+            }));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 500);
+        } finally {
+            lock.unlock("order:1");
+        }
+        assertTrue(localLocks().isEmpty());
+    }
+
+    @Test
+    void sameKeyWaitsForRelease() throws Exception {
+        assertTrue(lock.tryLock("order:1"));
+        assertFalse(inOtherThread(() -> lock.tryLock("order:1", 100)));
+
+        CountDownLatch waiting = new CountDownLatch(1);
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+            waiting.countDown();
+            boolean locked = lock.tryLock("order:1", 5000);
+            if (locked) {
+                lock.unlock("order:1");
+            }
+            return locked;
+        });
+        waiting.await();
+        Thread.sleep(50);
+        lock.unlock("order:1");
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        assertTrue(localLocks().isEmpty(), "无人持有和等待时应移除本地锁");
+        assertFalse(redis.template().hasKey("lock:order:1"));
+    }
+
+    @Test
+    void reentrantLockIsReleasedByTheLastUnlock() throws Exception {
+        assertTrue(lock.tryLock("order:1"));
+        assertTrue(lock.tryLock("order:1"));
+        lock.unlock("order:1");
+        assertEquals(1, localLocks().size());
+        assertFalse(inOtherThread(() -> lock.tryLock("order:1", 50)));
+        lock.unlock("order:1");
+        assertTrue(localLocks().isEmpty());
+        assertFalse(redis.template().hasKey("lock:order:1"));
+    }
+
+    @Test
+    void unlockWithoutHoldingIsIgnored() {
+        lock.unlock("order:1");
+        assertTrue(localLocks().isEmpty());
+    }
+
+    /**
+     * 释放脚本执行失败时，线程放弃最后一次持有后看门狗不再续租，Redis 中的锁在租约到期后释放
+     */
+    @Test
+    void failedReleaseStopsRenewingAfterTheLastHold() {
+        StringRedisTemplate template = Mockito.spy(redis.template());
+        Object releaseScript = ReflectionTestUtils.getField(RedisLock.class, "RELEASE_SCRIPT");
+        Mockito.doThrow(new RedisSystemException("release failed", new IllegalStateException()))
+                .when(template).execute(Mockito.same((RedisScript<?>) releaseScript), anyList(), any());
+        RedisLock failing = new RedisLock(template, container);
+        ReflectionTestUtils.setField(failing, "leaseMillis", 30000L);
+        ReflectionTestUtils.setField(failing, "waitMillis", 200L);
+        failing.init();
+        try {
+            assertTrue(failing.tryLock("order:1"));
+            assertTrue(failing.tryLock("order:1"));
+            assertThrows(RedisSystemException.class, () -> failing.unlock("order:1"));
+            assertEquals(1, held(failing).size(), "仍持有一次时继续续租");
+            assertThrows(RedisSystemException.class, () -> failing.unlock("order:1"));
+            assertTrue(held(failing).isEmpty(), "放弃最后一次持有后不再续租");
+            assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(failing, "localLocks")).isEmpty());
+        } finally {
+            failing.destroy();
+            redis.template().delete("lock:order:1");
+        }
+    }
+
+    private Map<?, ?> localLocks() {
+        return (Map<?, ?>) ReflectionTestUtils.getField(lock, "localLocks");
+    }
+
+    private static Map<?, ?> held(RedisLock redisLock) {
+        return (Map<?, ?>) ReflectionTestUtils.getField(redisLock, "held");
+    }
+
+    private static boolean inOtherThread(Supplier<Boolean> task) throws Exception {
+        return CompletableFuture.supplyAsync(task).get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+class ShopBloomFilterTest {
+
+    /**
+     * 模拟tb_shop中的商铺id，数量小于一批，每次加载一次查询即返回全部
+     */
+    private final List<Object> table = new CopyOnWriteArrayList<>();
+
+    private ShopBloomFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        ShopMapper shopMapper = Mockito.mock(ShopMapper.class);
+        Mockito.when(shopMapper.selectObjs(any())).thenAnswer(invocation -> new ArrayList<>(table));
+        for (long id = 1; id <= 100; id++) {
+            table.add(id);
+        }
+        filter = new ShopBloomFilter();
+        ReflectionTestUtils.setField(filter, "shopMapper", shopMapper);
+        ReflectionTestUtils.setField(filter, "stringRedisTemplate", Mockito.mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(filter, "listenerContainer", Mockito.mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(filter, "expectedInsertions", 1000L);
+        ReflectionTestUtils.setField(filter, "fpp", 0.001);
+        filter.init();
+    }
+
+    @Test
+    void loadedIdsAreAcceptedAndMissingIdsRejected() {
+        for (long id = 1; id <= 100; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+        assertFalse(filter.mightContain(-1L));
+        assertEquals(100L, filter.stats().get("maxLoadedId"));
+    }
+
+    /**
+     * 错过新增通知时，大于加载时最大id的新商铺仍然放行
+     */
+    @Test
+    void newIdAboveTheLoadedMaximumIsAcceptedWithoutNotification() {
+        table.add(101L);
+        assertTrue(filter.mightContain(101L));
+    }
+
+    /**
+     * 错过新增通知且id不大于加载时最大id的商铺，重建后不再被误拒
+     */
+    @Test
+    void rebuildPicksUpMissedIds() {
+        long missed = -1;
+        while (filter.mightContain(missed)) {
+            missed--;
+        }
+        table.add(0, missed);
+        assertFalse(filter.mightContain(missed));
+        filter.rebuild();
+        assertTrue(filter.mightContain(missed));
+        assertEquals(101L, filter.stats().get("insertions"));
+    }
+}
@@ -0,0 +1,82 @@
+package com.hmdp.utils;
+
+import com.hmdp.EmbeddedRedis;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopCacheClientTest {
+
+    private static EmbeddedRedis redis;
+
+    private ShopCacheClient client;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.template().delete(RedisConstants.CACHE_SHOP_KEY + 1);
+        client = new ShopCacheClient();
+        ReflectionTestUtils.setField(client, "stringRedisTemplate", redis.template());
+        ReflectionTestUtils.setField(client, "ttlJitter", 0.1);
+        ReflectionTestUtils.setField(client, "xfetchBeta", 1.0);
+    }
+
+    /**
+     * 同一秒内的两次修改版本不同，读到第一次修改结果的慢请求无法覆盖第二次修改留下的墓碑
+     */
+    @Test
+    void staleBackfillCannotReplaceNewerTombstone() {
+        assertTrue(client.set(shop(1L, "first"), 5));
+        tombstone(2L);
+        assertFalse(client.set(shop(1L, "first"), 5));
+        assertNull(client.get(1L).getData());
+
+        assertTrue(client.set(shop(2L, "second"), 5));
+        Shop cached = (Shop) client.get(1L).getData();
+        assertEquals("second", cached.getName());
+        assertEquals(2L, cached.getVersion());
+    }
+
+    @Test
+    void olderVersionCannotReplaceNewerData() {
+        assertTrue(client.set(shop(3L, "third"), 5));
+        assertFalse(client.set(shop(2L, "second"), 5));
+        assertEquals("third", ((Shop) client.get(1L).getData()).getName());
+    }
+
+    private void tombstone(long version) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("cache_tombstone.lua"));
+        script.setResultType(Long.class);
+        redis.template().execute(script, Collections.singletonList(RedisConstants.CACHE_SHOP_KEY + 1),
+                String.valueOf(version), "60");
+    }
+
+    private static Shop shop(long version, String name) {
+        Shop shop = RedisHashCodecBenchmark.sampleShop();
+        shop.setName(name);
+        shop.setVersion(version);
+        return shop;
+    }
+}
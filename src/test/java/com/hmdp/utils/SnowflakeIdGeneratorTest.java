@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final int THREADS = 32;
+    private static final int IDS_PER_THREAD = 20000;
+
+    /**
+     * 多线程并发生成的 id 不重复，且每个线程内单调递增。prefetch-size 为 0 时所有线程竞争同一个 CAS，
+     * 大于 0 时各线程在预占的序列号段内分配
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 100, 4096})
+    void concurrentIdsAreUnique(int prefetchSize) throws Exception {
+        SnowflakeIdGenerator generator = new IdWorkerRedisStub(-1).newGenerator(prefetchSize);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                Callable<long[]> task = () -> {
+                    start.await();
+                    long[] ids = new long[IDS_PER_THREAD];
+                    for (int j = 0; j < ids.length; j++) {
+                        ids[j] = generator.nextId();
+                    }
+                    return ids;
+                };
+                futures.add(pool.submit(task));
+            }
+            start.countDown();
+            Set<Long> all = new HashSet<>(THREADS * IDS_PER_THREAD * 2);
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int j = 0; j < ids.length; j++) {
+                    assertTrue(j == 0 || ids[j] > ids[j - 1], "同一线程内的 id 应单调递增");
+                    all.add(ids[j]);
+                }
+            }
+            assertEquals(THREADS * IDS_PER_THREAD, all.size());
+        } finally {
+            pool.shutdownNow();
+            generator.destroy();
+        }
+    }
+
+    /**
+     * 正常释放机器号后，新的持有者从上一个持有者记录的时间戳之后开始，即使上一个持有者已经借用了未来的毫秒
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {0, 4096})
+    void gracefulHandoffContinuesAfterPreviousHolder(int prefetchSize) {
+        IdWorkerRedisStub redis = new IdWorkerRedisStub(7);
+        SnowflakeIdGenerator previous = redis.newGenerator(prefetchSize);
+        long max = 0;
+        // 远超每毫秒 4096 个序列号，时间戳会借用未来的毫秒
+        for (int i = 0; i < 4096 * 200; i++) {
+            max = Math.max(max, previous.nextId());
+        }
+        previous.destroy();
+
+        SnowflakeIdGenerator next = redis.newGenerator(prefetchSize);
+        try {
+            assertEquals(7, next.stats().get("workerId"));
+            assertTrue(next.nextId() > max, "新持有者生成的 id 应大于上一个持有者的所有 id");
+        } finally {
+            next.destroy();
+        }
+    }
+
+    @Test
+    void idContainsWorkerId() {
+        SnowflakeIdGenerator generator = new IdWorkerRedisStub(5).newGenerator(0);
+        try {
+            assertEquals(5L, generator.nextId() >>> 12 & 1023);
+        } finally {
+            generator.destroy();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.extension.conditions.update.UpdateChainWrapper;
+import com.hmdp.entity.SecKillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SecKillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISecKillVoucherService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+
+class VoucherOrderWriterTest {
+
+    /**
+     * 模拟数据库中已写入的订单，订单id -> 订单
+     */
+    private final Map<Long, VoucherOrder> table = new ConcurrentHashMap<>();
+
+    /**
+     * 每次扣减库存的 SET 语句
+     */
+    private final List<String> stockUpdates = new CopyOnWriteArrayList<>();
+
+    /**
+     * 剩余的写入失败次数
+     */
+    private final AtomicInteger insertFailures = new AtomicInteger();
+
+    /**
+     * 剩余的提交失败次数，提交失败时订单已经写入，模拟提交成功但确认丢失
+     */
+    private final AtomicInteger commitFailures = new AtomicInteger();
+
+    private VoucherOrderMapper voucherOrderMapper;
+
+    private SecKillCompensator compensator;
+
+    private VoucherOrderWriter writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        voucherOrderMapper = Mockito.mock(VoucherOrderMapper.class);
+        Mockito.when(voucherOrderMapper.selectList(any())).thenAnswer(invocation -> new ArrayList<>(table.values()));
+        Mockito.when(voucherOrderMapper.selectObjs(any())).thenAnswer(invocation -> new ArrayList<Object>(table.keySet()));
+        Mockito.when(voucherOrderMapper.insertBatch(anyList())).thenAnswer(invocation -> {
+            if (insertFailures.getAndDecrement() > 0) {
+                throw new IllegalStateException("database is down");
+            }
+            List<VoucherOrder> orders = invocation.getArgument(0);
+            for (VoucherOrder order : orders) {
+                assertFalse(table.containsKey(order.getId()), "订单不应重复写入");
+                boolean duplicate = table.values().stream().anyMatch(existing ->
+                        existing.getVoucherId().equals(order.getVoucherId())
+                                && existing.getUserId().equals(order.getUserId()));
+                if (duplicate) {
+                    throw new DuplicateKeyException("uk_voucher_user");
+                }
+            }
+            orders.forEach(order -> table.put(order.getId(), order));
+            return orders.size();
+        });
+
+        SecKillVoucherMapper secKillVoucherMapper = Mockito.mock(SecKillVoucherMapper.class);
+        Mockito.when(secKillVoucherMapper.update(any(), any())).thenAnswer(invocation -> {
+            stockUpdates.add(((Wrapper<SecKillVoucher>) invocation.getArgument(1)).getSqlSet());
+            return 1;
+        });
+        ISecKillVoucherService secKillVoucherService = Mockito.mock(ISecKillVoucherService.class);
+        Mockito.when(secKillVoucherService.update()).thenAnswer(invocation -> new UpdateChainWrapper<>(secKillVoucherMapper));
+
+        PlatformTransactionManager transactionManager = Mockito.mock(PlatformTransactionManager.class);
+        Mockito.when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        Mockito.doAnswer(invocation -> {
+            if (commitFailures.getAndDecrement() > 0) {
+                throw new TransactionSystemException("commit acknowledgement lost");
+            }
+            return null;
+        }).when(transactionManager).commit(any());
+
+        compensator = Mockito.mock(SecKillCompensator.class);
+
+        writer = new VoucherOrderWriter();
+        ReflectionTestUtils.setField(writer, "voucherOrderMapper", voucherOrderMapper);
+        ReflectionTestUtils.setField(writer, "secKillVoucherService", secKillVoucherService);
+        ReflectionTestUtils.setField(writer, "transactionTemplate", new TransactionTemplate(transactionManager));
+        ReflectionTestUtils.setField(writer, "compensator", compensator);
+        ReflectionTestUtils.setField(writer, "queueCapacity", 100);
+        ReflectionTestUtils.setField(writer, "batchSize", 10);
+        ReflectionTestUtils.setField(writer, "flushIntervalMillis", 20L);
+        ReflectionTestUtils.setField(writer, "offerTimeoutMillis", 10L);
+        ReflectionTestUtils.setField(writer, "maxRetries", 2);
+        writer.init();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        writer.destroy();
+    }
+
+    @Test
+    void writeSkipsOrdersAlreadyInTheDatabase() {
+        List<VoucherOrder> orders = Arrays.asList(order(1L, 10L), order(2L, 10L), order(3L, 11L));
+        assertEquals(3, writer.write(orders));
+        assertEquals(Arrays.asList("stock = stock - 2", "stock = stock - 1"), stockUpdates);
+
+        assertEquals(0, writer.write(orders));
+        Mockito.verify(voucherOrderMapper, times(1)).insertBatch(anyList());
+        assertEquals(2, stockUpdates.size(), "重复写入不应再次扣减库存");
+    }
+
+    /**
+     * 同一用户对同一秒杀券已有订单时不再写入，也不扣减数据库库存，只归还 Redis 库存
+     */
+    @Test
+    void duplicateBuyerIsRestockedInsteadOfWritten() {
+        table.put(1L, order(1L, 7L, 10L));
+        VoucherOrder duplicate = order(2L, 7L, 10L);
+        VoucherOrder sameBatch = order(4L, 8L, 10L);
+        assertEquals(1, writer.write(Arrays.asList(duplicate, order(3L, 8L, 10L), sameBatch)));
+        assertEquals(Collections.singletonList("stock = stock - 1"), stockUpdates);
+        Mockito.verify(compensator).restock(duplicate);
+        Mockito.verify(compensator).restock(sameBatch);
+        assertEquals(2L, writer.stats().get("duplicateCount"));
+        assertFalse(table.containsKey(2L));
+    }
+
+    /**
+     * 过滤之后才写入的同一用户订单触发唯一索引冲突，重新过滤后按重复订单处理
+     */
+    @Test
+    void duplicateKeyFromConcurrentWriterIsFilteredOnRetry() {
+        VoucherOrder order = order(2L, 7L, 10L);
+        Mockito.when(voucherOrderMapper.selectList(any()))
+                .thenAnswer(invocation -> {
+                    // 第一次过滤之后另一个节点写入了该用户的订单
+                    table.put(1L, order(1L, 7L, 10L));
+                    return new ArrayList<>();
+                })
+                .thenAnswer(invocation -> new ArrayList<>(table.values()));
+        assertEquals(0, writer.write(Collections.singletonList(order)));
+        Mockito.verify(voucherOrderMapper, times(1)).insertBatch(anyList());
+        Mockito.verify(compensator).restock(order);
+        assertTrue(stockUpdates.isEmpty());
+    }
+
+    @Test
+    void retriesUntilTheDatabaseRecovers() throws InterruptedException {
+        insertFailures.set(3);
+        assertTrue(writer.submit(order(1L, 10L)));
+        awaitWritten(1);
+        assertEquals(1, table.size());
+        assertEquals(3L, writer.stats().get("retryCount"));
+        assertEquals(0L, writer.stats().get("droppedCount"));
+        Mockito.verify(compensator, never()).compensate(any());
+    }
+
+    /**
+     * 提交成功但确认丢失时，重试先查出已写入的订单，不会重复写入也不会重复扣减库存
+     */
+    @Test
+    void lostCommitAcknowledgementIsNotWrittenTwice() throws InterruptedException {
+        commitFailures.set(1);
+        assertTrue(writer.submit(order(1L, 10L)));
+        awaitRetried(1);
+        awaitBatches(1);
+        assertEquals(1, table.size());
+        Mockito.verify(voucherOrderMapper, times(1)).insertBatch(anyList());
+        assertEquals(1, stockUpdates.size());
+        Mockito.verify(compensator, never()).compensate(any());
+    }
+
+    @Test
+    void shutdownCompensatesOrdersThatStillFail() throws InterruptedException {
+        insertFailures.set(Integer.MAX_VALUE);
+        VoucherOrder order = order(1L, 10L);
+        assertTrue(writer.submit(order));
+        awaitRetried(1);
+        writer.destroy();
+        Mockito.verify(compensator).compensate(order);
+        assertTrue(table.isEmpty());
+        assertEquals(1L, writer.stats().get("droppedCount"));
+        assertFalse(writer.submit(order(2L, 10L)), "关闭后不再接收订单");
+    }
+
+    /**
+     * 关闭时放弃的批次实际已经提交，只是确认丢失，按订单id查到后不撤销
+     */
+    @Test
+    void shutdownDoesNotCompensateOrdersAlreadyWritten() throws InterruptedException {
+        commitFailures.set(Integer.MAX_VALUE);
+        VoucherOrder order = order(1L, 10L);
+        assertTrue(writer.submit(order));
+        awaitRetried(1);
+        writer.destroy();
+        assertTrue(table.containsKey(1L));
+        Mockito.verify(compensator, never()).compensate(any());
+        assertEquals(0L, writer.stats().get("droppedCount"));
+    }
+
+    /**
+     * 无法确认订单是否已写入时不撤销，避免撤销已落库的订单
+     */
+    @Test
+    void shutdownDoesNotCompensateWhenTheDatabaseCannotBeChecked() throws InterruptedException {
+        insertFailures.set(Integer.MAX_VALUE);
+        Mockito.when(voucherOrderMapper.selectObjs(any())).thenThrow(new IllegalStateException("database is down"));
+        assertTrue(writer.submit(order(1L, 10L)));
+        awaitRetried(1);
+        writer.destroy();
+        Mockito.verify(compensator, never()).compensate(any());
+        assertEquals(1L, writer.stats().get("droppedCount"));
+    }
+
+    private void awaitWritten(long count) throws InterruptedException {
+        await("writtenCount", count);
+    }
+
+    private void awaitRetried(long count) throws InterruptedException {
+        await("retryCount", count);
+    }
+
+    private void awaitBatches(long count) throws InterruptedException {
+        await("batchCount", count);
+    }
+
+    private void await(String stat, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((Long) writer.stats().get(stat) < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待" + stat + "达到" + count + "超时");
+            Thread.sleep(10);
+        }
+    }
+
+    private static VoucherOrder order(long id, long voucherId) {
+        return order(id, id, voucherId);
+    }
+
+    private static VoucherOrder order(long id, long userId, long voucherId) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(id);
+        order.setUserId(userId);
+        order.setVoucherId(voucherId);
+        return order;
+    }
+}